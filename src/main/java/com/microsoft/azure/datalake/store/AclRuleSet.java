@@ -0,0 +1,178 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ * See License.txt in the project root for license information.
+ *
+ */
+
+package com.microsoft.azure.datalake.store;
+
+import com.microsoft.azure.datalake.store.acl.AclEntry;
+import com.microsoft.azure.datalake.store.acl.AclScope;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A set of ACL rules, each mapping a path pattern to an ACL operation and an ACL spec. {@link RecursiveAclProcessor}
+ * evaluates the rules while it traverses a tree, so the tree is enumerated once however many rules apply.
+ * <P>
+ * A rule applies to the entries its pattern matches and to everything below a matching directory. When several
+ * rules apply to an entry the most specific pattern wins (see {@link PathPattern}); on a tie the rule that comes
+ * first wins. Entries no rule applies to are left alone.
+ * <P>
+ * In a rule file, each line holds a pattern, an operation (modifyacl, removeacl or setacl) and an ACL spec,
+ * separated by whitespace. Blank lines and lines starting with # are ignored:
+ * <pre>
+ * /data/finance   modifyacl   user:finance-team:rwx,default:user:finance-team:rwx
+ * hr/**           removeacl   user:contractors:rwx
+ * </pre>
+ */
+public class AclRuleSet {
+
+    static class Rule {
+        final PathPattern pattern;   // null applies to every entry
+        final RequestedOperation op;
+        final List<AclEntry> aclSpec;
+        final List<AclEntry> aclSpecForFiles = new ArrayList<>(10);
+
+        Rule(PathPattern pattern, RequestedOperation op, List<AclEntry> aclSpec) {
+            this.pattern = pattern;
+            this.op = op;
+            this.aclSpec = aclSpec;
+            for (AclEntry e : aclSpec) {
+                if (e.scope == AclScope.ACCESS) {
+                    this.aclSpecForFiles.add(e);
+                }
+            }
+        }
+
+        boolean appliesToFiles() {
+            return op == RequestedOperation.getacl || aclSpecForFiles.size() != 0;
+        }
+
+        int specificity() {
+            return pattern == null ? -1 : pattern.specificity();
+        }
+
+        boolean matches(String absolutePath, String relativePath, String name) {
+            return pattern == null || pattern.matches(absolutePath, relativePath, name);
+        }
+    }
+
+    private final List<Rule> rules = new ArrayList<>();
+
+    /**
+     * Creates a rule set with a single rule applying to every entry.
+     *
+     * @param op the operation to perform
+     * @param aclSpec the ACL list to apply
+     * @return the rule set
+     */
+    public static AclRuleSet forAllEntries(RequestedOperation op, List<AclEntry> aclSpec) {
+        AclRuleSet ruleSet = new AclRuleSet();
+        ruleSet.rules.add(new Rule(null, op, aclSpec));
+        return ruleSet;
+    }
+
+    /**
+     * Reads a rule file.
+     *
+     * @param filename local path of the rule file
+     * @return the rule set
+     * @throws IOException if the file cannot be read
+     * @throws IllegalArgumentException if a line of the file is not a valid rule
+     */
+    public static AclRuleSet fromFile(String filename) throws IOException {
+        AclRuleSet ruleSet = new AclRuleSet();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(filename), StandardCharsets.UTF_8))) {
+            String line;
+            int lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) continue;
+                String[] fields = line.split("\\s+");
+                if (fields.length != 3) {
+                    throw new IllegalArgumentException("Line " + lineNumber + ": expected <pattern> <operation> <aclspec>");
+                }
+                try {
+                    ruleSet.addRule(fields[0], RequestedOperation.valueOf(fields[1].toLowerCase()), AclEntry.parseAclSpec(fields[2]));
+                } catch (IllegalArgumentException ex) {
+                    throw new IllegalArgumentException("Line " + lineNumber + ": " + ex.getMessage());
+                }
+            }
+        }
+        return ruleSet;
+    }
+
+    /**
+     * Adds a rule.
+     *
+     * @param glob the path pattern selecting the entries the rule applies to
+     * @param op the operation; one of modifyacl, removeacl or setacl
+     * @param aclSpec the ACL list to apply
+     * @return {@code this}, for chaining
+     */
+    public AclRuleSet addRule(String glob, RequestedOperation op, List<AclEntry> aclSpec) {
+        if (op != RequestedOperation.modifyacl && op != RequestedOperation.removeacl && op != RequestedOperation.setacl) {
+            throw new IllegalArgumentException("Not an ACL operation: " + op);
+        }
+        rules.add(new Rule(new PathPattern(glob), op, aclSpec));
+        return this;
+    }
+
+    /**
+     * @param op an operation
+     * @return true if any rule performs the operation
+     */
+    public boolean usesOperation(RequestedOperation op) {
+        for (Rule r : rules) {
+            if (r.op == op) return true;
+        }
+        return false;
+    }
+
+    /*
+     * Encodes the rules as tab-separated fields, three per rule: pattern (empty for all entries), operation and
+     * ACL spec. Used to hand the rule set to shard workers.
+     */
+    String encode() {
+        StringBuilder sb = new StringBuilder();
+        for (Rule r : rules) {
+            if (sb.length() > 0) sb.append('\t');
+            sb.append(r.pattern == null ? "" : r.pattern.toString()).append('\t')
+              .append(r.op).append('\t')
+              .append(AclEntry.aclListToString(r.aclSpec));
+        }
+        return sb.toString();
+    }
+
+    static AclRuleSet decode(String[] fields, int offset) {
+        if ((fields.length - offset) % 3 != 0) throw new IllegalArgumentException("Malformed encoded rule set");
+        AclRuleSet ruleSet = new AclRuleSet();
+        for (int i = offset; i < fields.length; i += 3) {
+            PathPattern pattern = fields[i].isEmpty() ? null : new PathPattern(fields[i]);
+            ruleSet.rules.add(new Rule(pattern, RequestedOperation.valueOf(fields[i + 1]), AclEntry.parseAclSpec(fields[i + 2])));
+        }
+        return ruleSet;
+    }
+
+    /*
+     * Picks the rule for an entry, given the rule that applied to its parent directory (or null)
+     */
+    Rule select(Rule inherited, String absolutePath, String relativePath, String name) {
+        Rule best = inherited;
+        for (Rule r : rules) {
+            if ((best == null || r.specificity() > best.specificity()) && r.matches(absolutePath, relativePath, name)) {
+                best = r;
+            }
+        }
+        return best;
+    }
+}
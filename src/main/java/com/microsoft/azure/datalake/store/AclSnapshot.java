@@ -0,0 +1,155 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ * See License.txt in the project root for license information.
+ *
+ */
+
+package com.microsoft.azure.datalake.store;
+
+import com.microsoft.azure.datalake.store.acl.AclAction;
+import com.microsoft.azure.datalake.store.acl.AclEntry;
+import com.microsoft.azure.datalake.store.acl.AclScope;
+import com.microsoft.azure.datalake.store.acl.AclStatus;
+import com.microsoft.azure.datalake.store.acl.AclType;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Local file holding the ACLs of a directory tree, written by {@code getacl} and read back by {@code restoreacl}.
+ * <P>
+ * One line per entry, tab-separated: {@code d} or {@code f}, octal permission, owner, group, ACL spec and the path.
+ * The path comes last so it may contain tabs. Files whose name ends with {@code .gz} are gzip-compressed.
+ */
+class AclSnapshot {
+    private static final int BUFFER_SIZE = 1024 * 1024;
+
+    static class Entry {
+        final boolean isDirectory;
+        final String permission;
+        final String owner;
+        final String group;
+        final List<AclEntry> aclSpec;
+        final String path;
+
+        Entry(boolean isDirectory, String permission, String owner, String group, List<AclEntry> aclSpec, String path) {
+            this.isDirectory = isDirectory;
+            this.permission = permission;
+            this.owner = owner;
+            this.group = group;
+            this.aclSpec = aclSpec;
+            this.path = path;
+        }
+
+        /*
+         * The ACL spec with the base entries filled in from the permission, for entries exported without them. With
+         * named entries the group digit of the permission is the mask, so group:: is only taken from the permission
+         * of entries without a mask; otherwise it is the one exported with the ACL.
+         */
+        List<AclEntry> fullAclSpec() {
+            List<AclEntry> spec = new ArrayList<>(aclSpec);
+            String octal = permission.length() > 3 ? permission.substring(permission.length() - 3) : permission;
+            if (octal.length() == 3) {
+                addBaseEntryIfMissing(spec, AclType.USER, octal.charAt(0));
+                if (!hasMask()) addBaseEntryIfMissing(spec, AclType.GROUP, octal.charAt(1));
+                addBaseEntryIfMissing(spec, AclType.OTHER, octal.charAt(2));
+            }
+            return spec;
+        }
+
+        private boolean hasMask() {
+            for (AclEntry e : aclSpec) {
+                if (e.scope == AclScope.ACCESS && e.type == AclType.MASK) return true;
+            }
+            return false;
+        }
+
+        private static void addBaseEntryIfMissing(List<AclEntry> spec, AclType type, char octalDigit) {
+            for (AclEntry e : spec) {
+                if (e.scope == AclScope.ACCESS && e.type == type && (e.name == null || e.name.isEmpty())) return;
+            }
+            spec.add(new AclEntry(AclScope.ACCESS, type, "", AclAction.fromOctal(octalDigit - '0')));
+        }
+    }
+
+    static class Writer implements Closeable {
+        private final BufferedWriter out;
+
+        Writer(String filename) throws IOException {
+            OutputStream os = new FileOutputStream(filename);
+            if (filename.endsWith(".gz")) os = new GZIPOutputStream(os, BUFFER_SIZE);
+            out = new BufferedWriter(new OutputStreamWriter(os, StandardCharsets.UTF_8), BUFFER_SIZE);
+        }
+
+        synchronized void write(DirectoryEntry de, AclStatus status) throws IOException {
+            out.write(de.type == DirectoryEntryType.DIRECTORY ? 'd' : 'f');
+            out.write('\t');
+            out.write(status.octalPermissions == null ? "" : status.octalPermissions);
+            out.write('\t');
+            out.write(status.owner == null ? "" : status.owner);
+            out.write('\t');
+            out.write(status.group == null ? "" : status.group);
+            out.write('\t');
+            if (status.aclSpec != null) out.write(AclEntry.aclListToString(status.aclSpec));
+            out.write('\t');
+            out.write(de.fullName);
+            out.write('\n');
+        }
+
+        public synchronized void close() throws IOException {
+            out.close();
+        }
+    }
+
+    static class Reader implements Closeable {
+        private final BufferedReader in;
+        private long lineNumber = 0;
+
+        Reader(String filename) throws IOException {
+            InputStream is = new FileInputStream(filename);
+            if (filename.endsWith(".gz")) is = new GZIPInputStream(is, BUFFER_SIZE);
+            in = new BufferedReader(new InputStreamReader(is, StandardCharsets.UTF_8), BUFFER_SIZE);
+        }
+
+        /*
+         * Returns the next entry, or null at the end of the file
+         */
+        Entry next() throws IOException {
+            String line;
+            do {
+                line = in.readLine();
+                lineNumber++;
+                if (line == null) return null;
+            } while (line.isEmpty());
+            String[] fields = line.split("\t", 6);
+            if (fields.length != 6 || !(fields[0].equals("d") || fields[0].equals("f"))) {
+                throw new IOException("Malformed ACL snapshot at line " + lineNumber);
+            }
+            List<AclEntry> spec;
+            try {
+                spec = fields[4].isEmpty() ? new ArrayList<AclEntry>() : AclEntry.parseAclSpec(fields[4]);
+            } catch (IllegalArgumentException ex) {
+                throw new IOException("Malformed ACL spec at line " + lineNumber + ": " + ex.getMessage());
+            }
+            return new Entry(fields[0].equals("d"), fields[1], fields[2], fields[3], spec, fields[5]);
+        }
+
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+}
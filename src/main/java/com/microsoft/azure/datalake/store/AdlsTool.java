@@ -25,6 +25,10 @@ import java.util.Properties;
 class AdlsTool {
 	static final int oneMB = 1024*1024;
     public static void main( String[] args ) {
+        if (args.length >= 4 && args[0].equalsIgnoreCase("download") && args[3].trim().equals(StreamDownloader.STDOUT)) {
+            // stdout carries the downloaded data; everything else printed, logs included, goes to stderr
+            System.setOut(System.err);
+        }
         // Currently SetAcl is the only think this tool does
         // We can fill in more stuff in this method if the tool evolves to do more
         if (args.length < 1 ) {
@@ -48,13 +52,14 @@ class AdlsTool {
             AdlsTool.usage(1011);
         }
 
+        if (op == RequestedOperation.submit) {
+            SubmitMain.main(args);
+            return;
+        }
+
         ADLStoreClient client = null;
         try {
-            client = getClient(readPropertiesFile(args[1]));
-            String toolVersion = AdlsTool.class.getPackage().getImplementationVersion();
-            if (toolVersion == null) toolVersion = "UnknownVersion";
-            ADLStoreOptions options = new ADLStoreOptions().setUserAgentSuffix("AdlsTool-"+ toolVersion + "/" + op.toString());
-            client.setOptions(options);
+            client = createClient(args[1], op);
         } catch (FileNotFoundException ex) {
             System.out.println("Credential file not found: " + args[1]);
             AdlsTool.usage(2011);
@@ -63,9 +68,23 @@ class AdlsTool {
             AdlsTool.usage(2012);
         }
 
+        cipherSetup(client);
+        run(op, client, args);
+    }
+
+    /*
+     * Runs an operation; also used by the daemon for submitted jobs
+     */
+    static void run(RequestedOperation op, ADLStoreClient client, String[] args) {
         switch (op) {
             case modifyacl:
             case removeacl:
+            case applyaclrules:
+            case getacl:
+            case restoreacl:
+            case setowner:
+            case setpermission:
+            case setexpiry:
                 SetAclsMain.main(op, client, args);
                 break;
             case upload:
@@ -74,38 +93,95 @@ class AdlsTool {
             case download:
             	DownloaderMain.main(op, client, args);
             	break;
+            case copy:
+                CopyMain.main(op, client, args);
+                break;
+            case shardworker:
+                ShardWorker.main(op, client, args);
+                break;
+            case du:
+                DiskUsageMain.main(op, client, args);
+                break;
+            case cleanup:
+                OrphanCleanupMain.main(op, client, args);
+                break;
+            case daemon:
+                DaemonMain.main(op, client, args);
+                break;
             default:
                 System.out.println("Illegal operation specified (setacl)");
                 AdlsTool.usage(1011);
         }
+    }
 
+    /*
+     * Ends the run with the exit code. While the daemon runs a job, only that job ends; see DaemonMain.
+     */
+    static void exit(int code) {
+        if (DaemonMain.isRunningJob()) throw new DaemonMain.JobExit(code);
+        System.exit(code);
     }
 
 
-    private static ADLStoreClient getClient(Properties prop) {
+    /*
+     * Creates a client from a credential file
+     */
+    static ADLStoreClient createClient(String credFile, RequestedOperation op) throws IOException {
+        ADLStoreClient client = getClient(readPropertiesFile(credFile));
+        String toolVersion = AdlsTool.class.getPackage().getImplementationVersion();
+        if (toolVersion == null) toolVersion = "UnknownVersion";
+        ADLStoreOptions options = new ADLStoreOptions().setUserAgentSuffix("AdlsTool-"+ toolVersion + "/" + op.toString());
+        client.setOptions(options);
+        return client;
+    }
+
+    /*
+     * The token provider is wrapped in a CachingTokenProvider, which refreshes tokens in the background. If the
+     * system property adlstool.tokencache names a file, tokens are also shared through it between invocations.
+     */
+    private static ADLStoreClient getClient(final Properties prop) {
 
-        AccessTokenProvider tokenProvider = null;
+        CachingTokenProvider.Source source = null;
         String credtype = prop.getProperty("credtype").toLowerCase();
 
         if ("clientcredentials".equals(credtype.toLowerCase())) {
-            tokenProvider = new ClientCredsTokenProvider(prop.getProperty("authurl"),
-                    prop.getProperty("clientid"),
-                    prop.getProperty("credential") );
+            source = new CachingTokenProvider.Source() {
+                public AccessTokenProvider create() {
+                    return new ClientCredsTokenProvider(prop.getProperty("authurl"),
+                            prop.getProperty("clientid"),
+                            prop.getProperty("credential") );
+                }
+            };
         } else if ("refreshtoken".equals(credtype.toLowerCase())) {
-            tokenProvider = new RefreshTokenBasedTokenProvider(
-                    prop.getProperty("clientid"),
-                    prop.getProperty("refreshtoken") );
+            source = new CachingTokenProvider.Source() {
+                public AccessTokenProvider create() {
+                    return new RefreshTokenBasedTokenProvider(
+                            prop.getProperty("clientid"),
+                            prop.getProperty("refreshtoken") );
+                }
+            };
         } else if ("userpassword".equals(credtype.toLowerCase())) {
-            tokenProvider = new UserPasswordTokenProvider(
-                    prop.getProperty("clientid"),
-                    prop.getProperty("username") ,
-                    prop.getProperty("password") );
+            source = new CachingTokenProvider.Source() {
+                public AccessTokenProvider create() {
+                    return new UserPasswordTokenProvider(
+                            prop.getProperty("clientid"),
+                            prop.getProperty("username") ,
+                            prop.getProperty("password") );
+                }
+            };
         } else {
             System.out.println("Unknown Token provider type " + prop.getProperty("type"));
             AdlsTool.usage(2100);
         }
 
         String account = prop.getProperty("account").toLowerCase();
+        String cacheFile = System.getProperty("adlstool.tokencache");
+        // the secret is part of the key, so credfiles that share a client id never share a token; only a hash is stored
+        String credentialKey = account + "\n" + credtype + "\n" + prop.getProperty("authurl") + "\n"
+                + prop.getProperty("clientid") + "\n" + prop.getProperty("username") + "\n"
+                + prop.getProperty("credential") + "\n" + prop.getProperty("refreshtoken") + "\n" + prop.getProperty("password");
+        AccessTokenProvider tokenProvider = new CachingTokenProvider(source,
+                cacheFile == null ? null : new File(cacheFile), credentialKey);
         return ADLStoreClient.createClient(account, tokenProvider);
     }
 
@@ -140,12 +216,71 @@ class AdlsTool {
     			size = size*oneMB;
     		} catch (NumberFormatException ex) {
     			System.out.println("Illegal chunksize in system property adlstool.chunksize: " + chunkSize);
-    			System.exit(1008);
+    			AdlsTool.exit(1008);
     		}
     	}
     	return size;
     }
     
+    /*
+     * User can restrict recursive operations with system properties:
+     *   adlstool.include, adlstool.exclude: ';'-separated path globs
+     *   adlstool.maxdepth: deepest level to process, the root being level 0
+     *   adlstool.entrytype: all, files or dirs
+     *   adlstool.modifiedafter, adlstool.modifiedbefore: see EntryFilter.parseTime
+     *   adlstool.minsize, adlstool.maxsize: file size bounds, see EntryFilter.parseSize
+     */
+    public static EntryFilter getEntryFilter() {
+        Properties p = System.getProperties();
+        EntryFilter filter = new EntryFilter();
+        String current = null;
+        try {
+            if ((current = p.getProperty("adlstool.include")) != null) {
+                for (String glob : current.split(";")) if (!glob.trim().isEmpty()) filter.addInclude(glob);
+            }
+            if ((current = p.getProperty("adlstool.exclude")) != null) {
+                for (String glob : current.split(";")) if (!glob.trim().isEmpty()) filter.addExclude(glob);
+            }
+            if ((current = p.getProperty("adlstool.maxdepth")) != null) {
+                filter.setMaxDepth(Integer.parseUnsignedInt(current.trim()));
+            }
+            if ((current = p.getProperty("adlstool.entrytype")) != null) {
+                filter.setEntryTypes(EntryFilter.EntryTypes.valueOf(current.trim().toLowerCase()));
+            }
+            if ((current = p.getProperty("adlstool.modifiedafter")) != null) {
+                filter.setModifiedAfter(EntryFilter.parseTime(current));
+            }
+            if ((current = p.getProperty("adlstool.modifiedbefore")) != null) {
+                filter.setModifiedBefore(EntryFilter.parseTime(current));
+            }
+            if ((current = p.getProperty("adlstool.minsize")) != null) {
+                filter.setMinSize(EntryFilter.parseSize(current));
+            }
+            if ((current = p.getProperty("adlstool.maxsize")) != null) {
+                filter.setMaxSize(EntryFilter.parseSize(current));
+            }
+        } catch (IllegalArgumentException ex) {
+            System.out.println("Illegal filter value in system properties: " + current);
+            AdlsTool.exit(1009);
+        }
+        return filter;
+    }
+
+    /*
+     * Reads a non-negative integer system property, exiting on an illegal value
+     */
+    public static int getIntProperty(String name, int defaultValue) {
+        String value = System.getProperty(name);
+        if (value == null) return defaultValue;
+        try {
+            return Integer.parseUnsignedInt(value);
+        } catch (NumberFormatException ex) {
+            System.out.println("Illegal value in system property " + name + " : " + value);
+            AdlsTool.exit(1008);
+            return defaultValue;
+        }
+    }
+
     public static int threadSetup() {
         // Determine the number of threads to use
         int numThreads = Runtime.getRuntime().availableProcessors() * 10; // heuristic: 10 times number of processors
@@ -156,18 +291,29 @@ class AdlsTool {
             	numThreads = Integer.parseUnsignedInt(threadStr);
             } catch (NumberFormatException ex) {
                 System.out.println("Illegal threadcount in system property adlstool.threads : " + threadStr);
-                System.exit(1008);
+                AdlsTool.exit(1008);
             }
         }
         System.setProperty("http.keepAlive", "true");
         System.setProperty("http.maxConnections", (new Integer(numThreads)).toString());
-        String cipherStr = p.getProperty("adlstool.cipher");
-        if(cipherStr == null) {
-        	setCipher();
-        }
     	return numThreads;
     }
     
+    /*
+     * Must run before the first HTTPS connection, which fixes the cipher suites for the rest of the run:
+     *   adlstool.cipher unset: the AES-CBC suite on Java 8, see setCipher
+     *   adlstool.cipher=calibrate: the fastest suite the account's endpoint accepts, see CipherCalibration
+     *   any other value: the JVM defaults
+     */
+    static void cipherSetup(ADLStoreClient client) {
+        String cipherStr = System.getProperty("adlstool.cipher");
+        if (cipherStr == null) {
+            setCipher();
+        } else if (cipherStr.equalsIgnoreCase("calibrate")) {
+            CipherCalibration.calibrate(client.getAccountName());
+        }
+    }
+
     public static void setCipher() {
     	if(System.getProperty("java.runtime.version").startsWith("1.8.")) {
         	System.setProperty("https.cipherSuites", "TLS_ECDHE_RSA_WITH_AES_128_CBC_SHA256");
@@ -180,11 +326,89 @@ class AdlsTool {
         System.out.println("ADLS Java command-line tool");
         System.out.println("Usage:");
         System.out.println("  adlstool <modifyacl|removeacl> <credfile> <path> \"<aclspec>\"");
+        System.out.println("  adlstool applyaclrules <credfile> <path> <rulefile>");
+        System.out.println("  adlstool getacl <credfile> <path> <localfile>");
+        System.out.println("  adlstool restoreacl <credfile> <localfile>");
+        System.out.println("  adlstool setowner <credfile> <path> <owner>[:<group>]");
+        System.out.println("  adlstool setpermission <credfile> <path> <dirpermission> [<filepermission>]");
+        System.out.println("  adlstool setexpiry <credfile> <path> <expiry>");
         System.out.println("  adlstool upload <credfile> <sourcePath> <destinationPath> [overwrite]");
+        System.out.println("  adlstool upload <credfile> - <destinationFile> [overwrite]       (uploads stdin)");
+        System.out.println("  adlstool download <credfile> <sourceFile> -                     (downloads to stdout)");
+        System.out.println("  adlstool copy <credfile> <sourcePath> <destinationPath> [overwrite] [destcred=<credfile>]");
+        System.out.println("  adlstool du <credfile> <path>");
+        System.out.println("  adlstool cleanup <credfile> <path> [local=<localPath>] [dryrun]");
+        System.out.println("  adlstool shardworker <credfile> <host>:<port>");
+        System.out.println("  adlstool daemon <credfile> <port>");
+        System.out.println("  adlstool submit <port> <operation> <arguments without credfile>");
         System.out.println();
         System.out.println("For upload:");
         System.out.println("  overwrite= Optional paramter. Specify overwrite, if destination files with same names should be overwritten");
         System.out.println();
+        System.out.println("For upload, download and copy:");
+        System.out.println("  adlstool.manifest= optional system property; a file listing the paths to transfer instead of walking the source,");
+        System.out.println("                     one per line, relative to sourcePath, optionally followed by a tab and the destination path,");
+        System.out.println("                     relative to destinationPath; absolute paths are taken as they are");
+        System.out.println("  adlstool.progress= optional system property; a file, or /dev/fd/<n>, that progress is appended to as one JSON record");
+        System.out.println("                     per line: files and bytes enumerated and done, MB/s, files/s, ETA, chunks in flight and queued");
+        System.out.println("  adlstool.progress.interval= seconds between progress records; default 5");
+        System.out.println();
+        System.out.println("For copy:");
+        System.out.println("  copies between two paths on ADLS without staging on local disk");
+        System.out.println("  destcred= Optional parameter. Credential file of the destination account, if it is not the source account");
+        System.out.println();
+        System.out.println("For applyaclrules:");
+        System.out.println("  rulefile= local file with one rule per line: <pattern> <modifyacl|removeacl> <aclspec>");
+        System.out.println("            each entry gets the rule with the most specific pattern matching it or its parent directories");
+        System.out.println();
+        System.out.println("For getacl and restoreacl:");
+        System.out.println("  localfile= file the owners, groups and ACLs of the tree are saved to and restored from; compressed if the name ends with .gz");
+        System.out.println();
+        System.out.println("For setowner, setpermission and setexpiry:");
+        System.out.println("  owner= the new owner, :<group> changes only the group");
+        System.out.println("  dirpermission, filepermission= octal permissions such as 750; files get dirpermission unless filepermission is given,");
+        System.out.println("                                 and - leaves directories or files unchanged");
+        System.out.println("  expiry= never, a duration from now (30d, 12h), created+<duration>, yyyy-MM-dd, yyyy-MM-ddTHH:mm:ss (UTC) or epoch millis;");
+        System.out.println("          applies to files only");
+        System.out.println();
+        System.out.println("For du:");
+        System.out.println("  prints entry counts, total size, a histogram of file sizes and the largest directories");
+        System.out.println("  adlstool.du.top= number of largest directories to print; default 20");
+        System.out.println("  adlstool.du.depth= directory sizes are tracked for directories up to this many levels below path; default 3");
+        System.out.println();
+        System.out.println("For cleanup:");
+        System.out.println("  deletes what failed transfers leave behind: <name>.adlstool-segments-<uuid> directories (and <name>-segments-<uuid>");
+        System.out.println("  ones of earlier versions) holding nothing but segments, and <uuid>.adlstool-concat files of uploads and copies below");
+        System.out.println("  path on ADLS, and <name>.adlstool-<uuid>.tmp download files below localPath; prints the bytes reclaimed");
+        System.out.println("  entries must also pass the traversal filter properties");
+        System.out.println("  dryrun= Optional parameter. Only lists the entries that would be deleted");
+        System.out.println("  adlstool.cleanup.olderthan= entries modified since are kept, as they may belong to a running transfer; 24h, 7d,");
+        System.out.println("                              yyyy-MM-dd, yyyy-MM-ddTHH:mm:ss (UTC) or epoch millis; default 24h");
+        System.out.println();
+        System.out.println("For modifyacl, removeacl, applyaclrules, getacl, setowner, setpermission, setexpiry, du, cleanup, upload, download and copy, these optional system properties prune the traversal:");
+        System.out.println("  adlstool.include, adlstool.exclude= ';'-separated globs (*, **, ?, [..], {a,b}); excluded directories are not listed");
+        System.out.println("  adlstool.maxdepth= deepest level to process, the given path being level 0");
+        System.out.println("  adlstool.entrytype= all, files or dirs");
+        System.out.println("  adlstool.modifiedafter, adlstool.modifiedbefore= 24h, 7d, yyyy-MM-dd, yyyy-MM-ddTHH:mm:ss (UTC) or epoch millis");
+        System.out.println("  adlstool.minsize, adlstool.maxsize= file size bounds in bytes, or with a K, M, G or T suffix");
+        System.out.println();
+        System.out.println("For modifyacl, removeacl, applyaclrules, upload and download, these optional system properties split the work across processes:");
+        System.out.println("  adlstool.shard.workers= number of worker processes to start on this machine");
+        System.out.println("  adlstool.shard.port= port to accept workers from other machines on; the token to start them with is printed");
+        System.out.println("  workers on other machines are started with shardworker and the environment variable ADLSTOOL_SHARD_TOKEN=<token>;");
+        System.out.println("  they get the filter from the coordinator");
+        System.out.println("  (for upload and download, the same chunk size, and the local files under the same path on a shared file system)");
+        System.out.println();
+        System.out.println("For daemon and submit:");
+        System.out.println("  the daemon keeps a client, its token and its connections warm and runs submitted jobs one at a time");
+        System.out.println("  on the loopback interface; submit passes its adlstool.* system properties to the job and streams its output");
+        System.out.println();
+        System.out.println("For all operations:");
+        System.out.println("  adlstool.tokencache= optional system property; local file to keep access tokens in between invocations,");
+        System.out.println("                       created readable by the current user only, and ignored if others can read it");
+        System.out.println("  adlstool.cipher=calibrate optional system property; times the TLS cipher suites on this machine and uses the fastest");
+        System.out.println("                  one the account accepts; the choice is remembered in ~/.adlstool-cipher");
+        System.out.println();
         System.out.println("Where <credfile> is the path to a java property file that contains the following properties:");
         System.out.println("  account= fully qualified domain name of the Azure Data Lake Store account");
         System.out.println("  credtype= the type of credential; one of clientcredentials or refreshtoken");
@@ -198,6 +422,6 @@ class AdlsTool {
         System.out.println("  clientid= the ID of the user");
         System.out.println("  refreshtoken= the refresh token");
         System.out.println();
-        System.exit(exitCode);
+        AdlsTool.exit(exitCode);
     }
 }
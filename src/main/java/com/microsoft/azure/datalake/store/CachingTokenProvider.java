@@ -0,0 +1,256 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ * See License.txt in the project root for license information.
+ *
+ */
+
+package com.microsoft.azure.datalake.store;
+
+import com.microsoft.azure.datalake.store.oauth2.AccessTokenProvider;
+import com.microsoft.azure.datalake.store.oauth2.AzureADToken;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFileAttributes;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Date;
+import java.util.EnumSet;
+import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Token provider that refreshes its token in the background, before it expires, so request threads never wait for
+ * AAD while a token is still valid. Only when there is no usable token does a request thread fetch one, and then
+ * the other threads wait for that one call instead of each making their own.
+ * <P>
+ * Optionally the token is kept in a local cache file, readable by the current user only, so that short repeated
+ * invocations reuse it instead of each going to AAD. Tokens are stored under a hash of the credential they were
+ * obtained with.
+ */
+class CachingTokenProvider extends AccessTokenProvider {
+    private static final Logger log = LoggerFactory.getLogger("com.microsoft.azure.datalake.store.CachingTokenProvider");
+
+    private static final long MIN_VALIDITY_MILLIS = 5 * 60 * 1000;   // tokens closer to expiry are not handed out
+    private static final long REFRESH_LEAD_MILLIS = 15 * 60 * 1000;  // background refresh starts this long before expiry
+    private static final long RETRY_MILLIS = 30 * 1000;              // wait before retrying a failed background refresh
+
+    /*
+     * Creates a provider that has not fetched a token yet, so getToken() on it always goes to AAD
+     */
+    interface Source {
+        AccessTokenProvider create();
+    }
+
+    private final Source source;
+    private final File cacheFile;
+    private final String cacheKey;
+    private final Object fetchLock = new Object();
+    private final ScheduledExecutorService refresher;
+    private volatile AzureADToken current = null;
+    private ScheduledFuture<?> pendingRefresh = null;   // guarded by fetchLock
+
+    /*
+     * @param cacheFile local file to share tokens through, or null
+     * @param credentialKey identifies the credential; only its hash is written to the cache
+     */
+    CachingTokenProvider(Source source, File cacheFile, String credentialKey) {
+        this.source = source;
+        this.cacheFile = cacheFile;
+        this.cacheKey = hash(credentialKey);
+        this.refresher = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "adlstool-token-refresh");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    @Override
+    public AzureADToken getToken() throws IOException {
+        AzureADToken t = current;
+        if (isUsable(t)) return t;
+        synchronized (fetchLock) {
+            // another thread may have fetched a token while this one waited
+            if (isUsable(current)) return current;
+            AzureADToken cached = readCache();
+            setToken(isUsable(cached) ? cached : refreshToken());
+            return current;
+        }
+    }
+
+    @Override
+    protected AzureADToken refreshToken() throws IOException {
+        AzureADToken t = source.create().getToken();
+        writeCache(t);
+        return t;
+    }
+
+    /*
+     * Called with fetchLock held
+     */
+    private void setToken(AzureADToken t) {
+        current = t;
+        token = t;
+        scheduleRefresh(t.expiry.getTime() - REFRESH_LEAD_MILLIS - System.currentTimeMillis());
+    }
+
+    /*
+     * Called with fetchLock held
+     */
+    private void scheduleRefresh(long delayMillis) {
+        if (pendingRefresh != null) pendingRefresh.cancel(false);
+        pendingRefresh = refresher.schedule(new Runnable() {
+            public void run() {
+                try {
+                    // another process may already have put a newer token in the cache
+                    AzureADToken t = readCache();
+                    if (t == null || t.expiry.getTime() < System.currentTimeMillis() + REFRESH_LEAD_MILLIS) {
+                        t = refreshToken();
+                    }
+                    synchronized (fetchLock) {
+                        setToken(t);
+                    }
+                } catch (IOException ex) {
+                    // request threads keep using the current token; they fetch one themselves once it is too old
+                    log.debug("Background token refresh failed, retrying: " + ex.getMessage());
+                    synchronized (fetchLock) {
+                        if (isUsable(current)) scheduleRefresh(RETRY_MILLIS);
+                    }
+                }
+            }
+        }, Math.max(RETRY_MILLIS, delayMillis), TimeUnit.MILLISECONDS);
+    }
+
+    private static boolean isUsable(AzureADToken t) {
+        return t != null && t.expiry != null && t.expiry.getTime() > System.currentTimeMillis() + MIN_VALIDITY_MILLIS;
+    }
+
+    private AzureADToken readCache() {
+        if (cacheFile == null || !cacheFile.exists()) return null;
+        try {
+            if (!isPrivate(cacheFile.toPath())) {
+                log.debug("Ignoring token cache readable by other users: " + cacheFile);
+                return null;
+            }
+            Properties p = load();
+            String accessToken = p.getProperty(cacheKey + ".token");
+            String expiry = p.getProperty(cacheKey + ".expiry");
+            if (accessToken == null || expiry == null) return null;
+            AzureADToken t = new AzureADToken();
+            t.accessToken = accessToken;
+            t.expiry = new Date(Long.parseLong(expiry));
+            return t;
+        } catch (IOException | NumberFormatException ex) {
+            log.debug("Unable to read token cache " + cacheFile + ": " + ex.getMessage());
+            return null;
+        }
+    }
+
+    /*
+     * Rewrites the cache with this token added, through a private temporary file renamed over the old cache, so
+     * other processes never see a partly written file. Concurrent writers may lose each other's entries, which only
+     * costs an extra AAD call later.
+     */
+    private void writeCache(AzureADToken t) {
+        if (cacheFile == null) return;
+        Path tmp = null;
+        try {
+            Properties p = (cacheFile.exists() && isPrivate(cacheFile.toPath())) ? load() : new Properties();
+            long now = System.currentTimeMillis();
+            for (String name : p.stringPropertyNames()) {
+                if (name.endsWith(".expiry") && Long.parseLong(p.getProperty(name)) < now) {
+                    String key = name.substring(0, name.length() - ".expiry".length());
+                    p.remove(key + ".expiry");
+                    p.remove(key + ".token");
+                }
+            }
+            p.setProperty(cacheKey + ".token", t.accessToken);
+            p.setProperty(cacheKey + ".expiry", Long.toString(t.expiry.getTime()));
+
+            File dir = cacheFile.getAbsoluteFile().getParentFile();
+            tmp = createPrivateFile(dir.toPath(), cacheFile.getName());
+            try (OutputStream out = new FileOutputStream(tmp.toFile())) {
+                p.store(out, "adlstool token cache");
+            }
+            try {
+                Files.move(tmp, cacheFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException ex) {
+                Files.move(tmp, cacheFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+            tmp = null;
+        } catch (IOException | NumberFormatException ex) {
+            log.debug("Unable to write token cache " + cacheFile + ": " + ex.getMessage());
+        } finally {
+            if (tmp != null) tmp.toFile().delete();
+        }
+    }
+
+    private Properties load() throws IOException {
+        Properties p = new Properties();
+        try (InputStream in = new FileInputStream(cacheFile)) {
+            p.load(in);
+        }
+        return p;
+    }
+
+    /*
+     * Creates a new temporary file in dir that only the current user can read or write
+     */
+    static Path createPrivateFile(Path dir, String prefix) throws IOException {
+        if (Files.getFileStore(dir).supportsFileAttributeView("posix")) {
+            return Files.createTempFile(dir, prefix, ".tmp",
+                    PosixFilePermissions.asFileAttribute(EnumSet.of(PosixFilePermission.OWNER_READ, PosixFilePermission.OWNER_WRITE)));
+        }
+        Path tmp = Files.createTempFile(dir, prefix, ".tmp");
+        File f = tmp.toFile();
+        if (!(f.setReadable(false, false) && f.setReadable(true, true) && f.setWritable(false, false) && f.setWritable(true, true))) {
+            f.delete();
+            throw new IOException("Unable to restrict permissions of " + f);
+        }
+        return tmp;
+    }
+
+    /*
+     * A cache that other users can read or replace could leak or plant tokens; such a file is not used
+     */
+    private static boolean isPrivate(Path path) throws IOException {
+        if (!Files.getFileStore(path).supportsFileAttributeView("posix")) return true;
+        PosixFileAttributes attrs = Files.readAttributes(path, PosixFileAttributes.class);
+        if (!attrs.owner().getName().equals(System.getProperty("user.name"))) return false;
+        for (PosixFilePermission perm : attrs.permissions()) {
+            if (perm != PosixFilePermission.OWNER_READ && perm != PosixFilePermission.OWNER_WRITE) return false;
+        }
+        return true;
+    }
+
+    private static String hash(String s) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-256");
+            StringBuilder sb = new StringBuilder();
+            for (byte b : md.digest(s.getBytes(StandardCharsets.UTF_8))) sb.append(String.format("%02x", b));
+            return sb.toString();
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+}
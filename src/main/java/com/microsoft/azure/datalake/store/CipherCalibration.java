@@ -0,0 +1,225 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ * See License.txt in the project root for license information.
+ *
+ */
+
+package com.microsoft.azure.datalake.store;
+
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocket;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.security.GeneralSecurityException;
+import java.security.spec.AlgorithmParameterSpec;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Picks the TLS cipher suite with the fastest bulk encryption on this machine that the account's endpoint accepts.
+ * <P>
+ * The bulk cipher of every suite the JVM enables by default is timed on TLS-record-sized buffers. The suites are
+ * then tried in order of throughput with a handshake against the endpoint, and the first one the server accepts is
+ * used for all connections of this run. The choice is remembered per JVM version, CPU architecture and endpoint in
+ * {@code ~/.adlstool-cipher}; delete the file to calibrate again.
+ */
+class CipherCalibration {
+
+    private static final int RECORD_SIZE = 16 * 1024;
+    private static final long WARMUP_MILLIS = 200;
+    private static final int PASSES = 3;
+    private static final long MEASURE_MILLIS = 300;
+    private static final int HANDSHAKE_TIMEOUT_MILLIS = 10000;
+
+    /*
+     * The bulk cipher and MAC of a family of cipher suites
+     */
+    private static class Bulk {
+        final String name;
+        final String transformation;
+        final int keyBytes;
+        final String mac;   // null for AEAD ciphers
+        double mbPerSecond = -1;
+
+        Bulk(String name, String transformation, int keyBytes, String mac) {
+            this.name = name;
+            this.transformation = transformation;
+            this.keyBytes = keyBytes;
+            this.mac = mac;
+        }
+    }
+
+    /*
+     * Calibrates, or uses the remembered choice, and sets https.cipherSuites. Returns the suite, or null if none
+     * could be chosen, in which case the JVM defaults stay in effect.
+     */
+    static String calibrate(String host) {
+        File cacheFile = new File(System.getProperty("user.home"), ".adlstool-cipher");
+        String cacheKey = System.getProperty("java.runtime.version") + "|" + System.getProperty("os.arch") + "|" + host;
+        Properties cache = load(cacheFile);
+        String suite = cache.getProperty(cacheKey);
+        if (suite != null) {
+            System.out.println("Using calibrated cipher suite " + suite + " (from " + cacheFile + ")");
+        } else {
+            suite = measure(host);
+            if (suite == null) return null;
+            cache.setProperty(cacheKey, suite);
+            store(cache, cacheFile);
+        }
+        System.setProperty("https.cipherSuites", suite);
+        return suite;
+    }
+
+    private static String measure(String host) {
+        String[] enabled;
+        try {
+            enabled = SSLContext.getDefault().getDefaultSSLParameters().getCipherSuites();
+        } catch (GeneralSecurityException ex) {
+            System.out.println("Cipher calibration skipped: " + ex.getMessage());
+            return null;
+        }
+
+        final Map<String, Bulk> bulkOfSuite = new HashMap<>();
+        Map<String, Bulk> bulks = new LinkedHashMap<>();
+        for (String suite : enabled) {
+            Bulk bulk = bulkOf(suite);
+            if (bulk == null) continue;
+            if (!bulks.containsKey(bulk.name)) bulks.put(bulk.name, bulk);
+            bulkOfSuite.put(suite, bulks.get(bulk.name));
+        }
+        // the JIT keeps optimizing the crypto code during the first measurements; the best of several passes
+        // keeps the ciphers measured first from looking slower than they are
+        for (int pass = 0; pass < PASSES; pass++) {
+            for (Bulk bulk : bulks.values()) {
+                bulk.mbPerSecond = Math.max(bulk.mbPerSecond, throughput(bulk));
+            }
+        }
+        List<String> candidates = new ArrayList<>();
+        for (String suite : enabled) {
+            if (bulkOfSuite.containsKey(suite) && bulkOfSuite.get(suite).mbPerSecond > 0) candidates.add(suite);
+        }
+        for (Bulk bulk : bulks.values()) {
+            if (bulk.mbPerSecond > 0) System.out.println(String.format("  %-24s %8.0f MB/s", bulk.name, bulk.mbPerSecond));
+        }
+        // stable sort: among equally fast suites the JVM's preference order is kept
+        Collections.sort(candidates, new Comparator<String>() {
+            public int compare(String a, String b) {
+                return Double.compare(bulkOfSuite.get(b).mbPerSecond, bulkOfSuite.get(a).mbPerSecond);
+            }
+        });
+
+        for (String suite : candidates) {
+            if (serverAccepts(host, suite)) {
+                System.out.println(String.format("Calibrated cipher suite: %s (%.0f MB/s)", suite, bulkOfSuite.get(suite).mbPerSecond));
+                return suite;
+            }
+        }
+        System.out.println("Cipher calibration: " + host + " accepted none of the measured suites, using JVM defaults");
+        return null;
+    }
+
+    private static Bulk bulkOf(String suite) {
+        if (suite.contains("_AES_128_GCM_")) return new Bulk("AES-128-GCM", "AES/GCM/NoPadding", 16, null);
+        if (suite.contains("_AES_256_GCM_")) return new Bulk("AES-256-GCM", "AES/GCM/NoPadding", 32, null);
+        if (suite.contains("_CHACHA20_POLY1305_")) return new Bulk("ChaCha20-Poly1305", "ChaCha20-Poly1305", 32, null);
+        if (suite.endsWith("_AES_128_CBC_SHA256")) return new Bulk("AES-128-CBC-HmacSHA256", "AES/CBC/NoPadding", 16, "HmacSHA256");
+        if (suite.endsWith("_AES_256_CBC_SHA384")) return new Bulk("AES-256-CBC-HmacSHA384", "AES/CBC/NoPadding", 32, "HmacSHA384");
+        if (suite.endsWith("_AES_128_CBC_SHA")) return new Bulk("AES-128-CBC-HmacSHA1", "AES/CBC/NoPadding", 16, "HmacSHA1");
+        if (suite.endsWith("_AES_256_CBC_SHA")) return new Bulk("AES-256-CBC-HmacSHA1", "AES/CBC/NoPadding", 32, "HmacSHA1");
+        return null;
+    }
+
+    /*
+     * Encrypts (and MACs) record-sized buffers for a while and returns MB/s, or -1 if the JVM lacks the algorithm
+     */
+    private static double throughput(Bulk bulk) {
+        try {
+            Cipher cipher = Cipher.getInstance(bulk.transformation);
+            Mac mac = (bulk.mac == null) ? null : Mac.getInstance(bulk.mac);
+            if (mac != null) mac.init(new SecretKeySpec(new byte[mac.getMacLength()], bulk.mac));
+            byte[] record = new byte[RECORD_SIZE];
+            byte[] out = new byte[RECORD_SIZE + 64];
+
+            long counter = 0;
+            long warmupEnd = System.nanoTime() + WARMUP_MILLIS * 1000000;
+            while (System.nanoTime() < warmupEnd) {
+                encryptRecord(bulk, cipher, mac, counter++, record, out);
+            }
+            long bytes = 0;
+            long start = System.nanoTime();
+            long end = start + MEASURE_MILLIS * 1000000;
+            while (System.nanoTime() < end) {
+                encryptRecord(bulk, cipher, mac, counter++, record, out);
+                bytes += RECORD_SIZE;
+            }
+            double seconds = (System.nanoTime() - start) / 1e9;
+            return bytes / seconds / (1024 * 1024);
+        } catch (GeneralSecurityException ex) {
+            return -1;
+        }
+    }
+
+    private static void encryptRecord(Bulk bulk, Cipher cipher, Mac mac, long counter, byte[] record, byte[] out)
+            throws GeneralSecurityException {
+        // AEAD ciphers refuse to reuse a nonce, so each record gets a new one, as in TLS
+        byte[] iv = new byte[bulk.transformation.startsWith("AES/CBC") ? 16 : 12];
+        for (int i = 0; i < 8; i++) iv[iv.length - 1 - i] = (byte) (counter >>> (8 * i));
+        AlgorithmParameterSpec params = bulk.transformation.startsWith("AES/GCM") ? new GCMParameterSpec(128, iv) : new IvParameterSpec(iv);
+        String algorithm = bulk.transformation.startsWith("AES") ? "AES" : "ChaCha20";
+        cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(new byte[bulk.keyBytes], algorithm), params);
+        cipher.doFinal(record, 0, RECORD_SIZE, out, 0);
+        if (mac != null) {
+            mac.update(record, 0, RECORD_SIZE);
+            mac.doFinal();
+        }
+    }
+
+    private static boolean serverAccepts(String host, String suite) {
+        try (SSLSocket socket = (SSLSocket) SSLContext.getDefault().getSocketFactory().createSocket()) {
+            socket.connect(new InetSocketAddress(host, 443), HANDSHAKE_TIMEOUT_MILLIS);
+            socket.setSoTimeout(HANDSHAKE_TIMEOUT_MILLIS);
+            socket.setEnabledCipherSuites(new String[] {suite});
+            socket.startHandshake();
+            return suite.equals(socket.getSession().getCipherSuite());
+        } catch (IOException | GeneralSecurityException | IllegalArgumentException ex) {
+            return false;
+        }
+    }
+
+    private static Properties load(File file) {
+        Properties p = new Properties();
+        if (file.exists()) {
+            try (InputStream in = new FileInputStream(file)) {
+                p.load(in);
+            } catch (IOException ex) {
+                // an unreadable cache only means calibrating again
+            }
+        }
+        return p;
+    }
+
+    private static void store(Properties p, File file) {
+        try (OutputStream out = new FileOutputStream(file)) {
+            p.store(out, "adlstool cipher calibration: <java version>|<arch>|<host>=<cipher suite>");
+        } catch (IOException ex) {
+            System.out.println("Unable to remember the cipher choice in " + file + ": " + ex.getMessage());
+        }
+    }
+}
@@ -44,5 +44,9 @@ class ConsumerQueue<T> {
 	public synchronized boolean isEmpty() {
 		return dataQ.isEmpty();
 	}
+	
+	public synchronized int size() {
+		return dataQ.size();
+	}
 
 }
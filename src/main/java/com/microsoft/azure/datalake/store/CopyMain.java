@@ -0,0 +1,79 @@
+package com.microsoft.azure.datalake.store;
+
+import java.io.IOException;
+
+/*
+ * Main method for copies between ADLS paths:
+ *   copy <credfile> <sourcePath> <destinationPath> [overwrite] [destcred=<credfile>]
+ */
+public class CopyMain {
+	static final int numberOfArguments = 4;
+	
+	public static void main(RequestedOperation op, ADLStoreClient client, String[] args ) {
+		if (args.length < numberOfArguments || args.length > numberOfArguments + 2) {
+			System.out.println("Illegal number of command-line parameters: " + args.length);
+			AdlsTool.usage(1000);
+		}
+		
+		String srcPath = args[2].trim();
+		String dstPath = args[3].trim();
+		if (srcPath.length() == 0) {
+			System.out.println("Illegal source path: " + args[2]);
+			AdlsTool.usage(1200);
+		}
+		if (dstPath.length() == 0) {
+			System.out.println("Illegal destination path: " + args[3]);
+			AdlsTool.usage(1201);
+		}
+		
+		IfExists overwriteOption = IfExists.FAIL;
+		ADLStoreClient destinationClient = client;
+		for (int i = numberOfArguments; i < args.length; i++) {
+			String arg = args[i].trim();
+			if (arg.equals("overwrite")) {
+				overwriteOption = IfExists.OVERWRITE;
+			} else if (arg.startsWith("destcred=")) {
+				String credFile = arg.substring("destcred=".length());
+				try {
+					destinationClient = AdlsTool.createClient(credFile, op);
+				} catch (IOException ex) {
+					System.out.println("Error reading destination account credentials: " + ex.toString());
+					AdlsTool.usage(2012);
+				}
+			} else {
+				System.out.println("Illegal optional parameter: " + arg);
+				AdlsTool.usage(1201);
+			}
+		}
+		
+		try {
+			long start = System.currentTimeMillis();
+			Stats R = RemoteCopy.copy(srcPath, dstPath, client, destinationClient, overwriteOption);
+			long stop = System.currentTimeMillis();
+			
+			if(R.getSkippedTransfers().size() + R.getFailedTransfers().size() == 0) {
+				System.out.println("SUCCESSFULLY COMPLETE");
+			} else {
+				System.out.println("COPY FAILED FOR FEW FILES");
+			}
+			System.out.println("Time taken: " + AdlsTool.timeString(stop - start));
+			System.out.println("# of Files Copied: " + R.getSuccessfulTransfers().size());
+			System.out.println("Total number of Bytes copied: " + R.totalSizeInBytes);
+			if(R.getSkippedTransfers().size() + R.getFailedTransfers().size() > 0) {
+				System.out.println("Failed copies:");
+				for(String file: R.getFailedTransfers()) {
+					System.out.println('\t' + file);
+				}
+				System.out.println("Files skipped");
+				for(String file: R.getSkippedTransfers()) {
+					System.out.println('\t' + file);
+				}
+			}
+		} catch (Exception ex) {
+			System.out.println("Error copying files");
+			System.out.println(ex.getMessage());
+			ex.printStackTrace();
+			AdlsTool.exit(5001);
+		}
+	}
+}
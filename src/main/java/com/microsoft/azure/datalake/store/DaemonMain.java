@@ -0,0 +1,261 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ * See License.txt in the project root for license information.
+ *
+ */
+
+package com.microsoft.azure.datalake.store;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Main method for daemon mode. The daemon keeps one JVM, one {@code ADLStoreClient} (with its token) and the
+ * JVM's pool of TLS connections warm, and runs jobs submitted by {@link SubmitMain} on them, so that frequent small
+ * jobs do not each pay for JVM startup, token acquisition and handshakes.
+ * <P>
+ * The daemon listens on the loopback interface only, and accepts clients that present the token it writes to
+ * {@code ~/.adlstool-daemon-<port>}, a file only the current user can read. Jobs run one at a time, each with all
+ * the threads a standalone run would use; clients that connect meanwhile wait their turn. The output of a job,
+ * including its progress and final stats, is streamed back to its client.
+ * <P>
+ * The protocol is line based, like the one of {@link ShardCoordinator}. The client sends "HELLO token", any
+ * number of "PROP name value" with the adlstool.* system properties for the job, and "RUN op arg..." with the
+ * command line minus the credential file. Local paths in both are made absolute by the client, as the job runs in
+ * the daemon's working directory. The daemon answers with "OUT text" lines carrying the output of the job, with
+ * backslash, CR and LF escaped, and a final "EXIT code". Fields are tab-separated.
+ */
+class DaemonMain {
+
+    /*
+     * Thrown by AdlsTool.exit while a job runs, so that the job ends instead of the daemon
+     */
+    static class JobExit extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+        final int code;
+
+        JobExit(int code) {
+            super("exit code " + code);
+            this.code = code;
+        }
+    }
+
+    private static volatile boolean runningJob = false;
+
+    static boolean isRunningJob() {
+        return runningJob;
+    }
+
+    public static void main(RequestedOperation op, ADLStoreClient client, String[] args) {
+        if (args.length != 3) {
+            System.out.println("Illegal number of command-line parameters: " + args.length);
+            AdlsTool.usage(1000);
+        }
+        int port = 0;
+        try {
+            port = Integer.parseInt(args[2]);
+        } catch (NumberFormatException ex) {
+            System.out.println("Illegal daemon port: " + args[2]);
+            AdlsTool.usage(1006);
+        }
+
+        try (ServerSocket server = new ServerSocket(port, 50, InetAddress.getLoopbackAddress())) {
+            String token = UUID.randomUUID().toString();
+            writeTokenFile(tokenFile(server.getLocalPort()), token);
+            JobOutput output = new JobOutput(System.out);
+            PrintStream jobStream = new PrintStream(output, true);
+            Map<String, String> baseline = adlstoolProperties();
+            System.out.println("Daemon listening on port " + server.getLocalPort());
+            System.setOut(jobStream);
+            System.setErr(jobStream);
+
+            while (true) {
+                try (Socket socket = server.accept()) {
+                    runJob(socket, client, args[1], token, output, baseline);
+                } catch (IOException ex) {
+                    output.original.println("Error talking to client: " + ex.getMessage());
+                }
+            }
+        } catch (IOException ex) {
+            System.out.println("Error starting daemon on port " + args[2]);
+            ex.printStackTrace();
+            AdlsTool.exit(5001);
+        }
+    }
+
+    static File tokenFile(int port) {
+        return new File(System.getProperty("user.home"), ".adlstool-daemon-" + port);
+    }
+
+    private static void writeTokenFile(File file, String token) throws IOException {
+        Path tmp = CachingTokenProvider.createPrivateFile(file.getAbsoluteFile().getParentFile().toPath(), file.getName());
+        try {
+            Files.write(tmp, token.getBytes(StandardCharsets.UTF_8));
+            Files.move(tmp, file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+        file.deleteOnExit();
+    }
+
+    private static void runJob(Socket socket, ADLStoreClient client, String credFile, String token,
+                               JobOutput output, Map<String, String> baseline) throws IOException {
+        BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+        BufferedWriter out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8));
+        if (!("HELLO\t" + token).equals(in.readLine())) {
+            return;
+        }
+
+        Map<String, String> properties = new HashMap<>();
+        List<String> args = null;
+        String line;
+        while (args == null && (line = in.readLine()) != null) {
+            String[] fields = line.split("\t", -1);
+            if (fields[0].equals("PROP") && fields.length == 3 && fields[1].startsWith("adlstool.")) {
+                properties.put(fields[1], fields[2]);
+            } else if (fields[0].equals("RUN") && fields.length >= 2) {
+                args = new ArrayList<>();
+                args.add(fields[1]);
+                args.add(credFile);   // the job runs with the daemon's client and credentials
+                for (int i = 2; i < fields.length; i++) args.add(fields[i]);
+            } else {
+                throw new IOException("Unexpected message from client: " + line);
+            }
+        }
+        if (args == null) return;
+
+        int code = 0;
+        setAdlstoolProperties(baseline, properties);
+        output.startJob(out);
+        runningJob = true;
+        try {
+            run(client, args.toArray(new String[args.size()]));
+        } catch (JobExit ex) {
+            code = ex.code;
+        } catch (Throwable ex) {
+            ex.printStackTrace();
+            code = 5001;
+        } finally {
+            runningJob = false;
+            setAdlstoolProperties(baseline, new HashMap<String, String>());
+            System.out.flush();
+            output.endJob();
+        }
+        out.write("EXIT\t" + code + "\n");
+        out.flush();
+    }
+
+    private static void run(ADLStoreClient client, String[] args) {
+        RequestedOperation op = null;
+        try {
+            op = RequestedOperation.valueOf(args[0].toLowerCase());
+        } catch (IllegalArgumentException ex) {
+            System.out.println("Illegal operation specified: " + args[0]);
+            AdlsTool.exit(1001);
+        }
+        if (op == RequestedOperation.setacl || op == RequestedOperation.daemon || op == RequestedOperation.submit
+                || op == RequestedOperation.shardworker) {
+            System.out.println("Operation not supported by the daemon: " + op);
+            AdlsTool.exit(1011);
+        }
+        AdlsTool.run(op, client, args);
+    }
+
+    private static Map<String, String> adlstoolProperties() {
+        Map<String, String> result = new HashMap<>();
+        for (String name : System.getProperties().stringPropertyNames()) {
+            if (name.startsWith("adlstool.")) result.put(name, System.getProperty(name));
+        }
+        return result;
+    }
+
+    /*
+     * Resets the adlstool.* system properties to the daemon's own, overridden by those of the job
+     */
+    private static void setAdlstoolProperties(Map<String, String> baseline, Map<String, String> job) {
+        for (String name : adlstoolProperties().keySet()) {
+            if (!baseline.containsKey(name)) System.clearProperty(name);
+        }
+        for (Map.Entry<String, String> e : baseline.entrySet()) System.setProperty(e.getKey(), e.getValue());
+        for (Map.Entry<String, String> e : job.entrySet()) System.setProperty(e.getKey(), e.getValue());
+    }
+
+    /*
+     * Stands in for System.out and System.err: while a job runs its output goes to the client, otherwise to the
+     * daemon's console
+     */
+    private static class JobOutput extends OutputStream {
+        final PrintStream original;
+        private final ByteArrayOutputStream pending = new ByteArrayOutputStream();
+        private Writer client = null;
+
+        JobOutput(PrintStream original) {
+            this.original = original;
+        }
+
+        synchronized void startJob(Writer client) {
+            this.client = client;
+        }
+
+        synchronized void endJob() throws IOException {
+            try {
+                flush();
+            } finally {
+                pending.reset();
+                client = null;
+            }
+        }
+
+        @Override
+        public synchronized void write(int b) throws IOException {
+            pending.write(b);
+            if (b == '\n' || b == '\r') flush();
+        }
+
+        @Override
+        public synchronized void write(byte[] b, int off, int len) throws IOException {
+            // flush at the last line end, so that progress lines reach the client as they are printed
+            int end = off + len;
+            while (end > off && b[end - 1] != '\n' && b[end - 1] != '\r') end--;
+            pending.write(b, off, end - off);
+            if (end > off) flush();
+            pending.write(b, end, off + len - end);
+        }
+
+        @Override
+        public synchronized void flush() throws IOException {
+            if (pending.size() == 0) return;
+            if (client == null) {
+                pending.writeTo(original);
+                original.flush();
+            } else {
+                String text = new String(pending.toByteArray(), Charset.defaultCharset());
+                client.write("OUT\t" + text.replace("\\", "\\\\").replace("\r", "\\r").replace("\n", "\\n") + "\n");
+                client.flush();
+            }
+            pending.reset();
+        }
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ * See License.txt in the project root for license information.
+ *
+ */
+
+package com.microsoft.azure.datalake.store;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Summarizes the disk usage of a directory tree: entry counts, total size, a histogram of file sizes and the largest
+ * directories. The tree is walked in parallel with a {@link ParallelTreeWalker}.
+ * <P>
+ * Directory sizes include everything below the directory. They are kept for directories down to a tracking depth
+ * only, so memory does not grow with the size of the tree; each directory passes the totals of its tracked
+ * ancestors down to its children, and a file adds its length to each of them.
+ */
+class DiskUsage {
+
+    // upper bounds of the histogram buckets, the last bucket being everything above
+    static final long[] BUCKET_LIMITS = {0, 1L << 10, 1L << 14, 1L << 18, 1L << 22, 1L << 26, 1L << 30, 1L << 34};
+    static final String[] BUCKET_NAMES = {"0 B", "< 1 KB", "< 16 KB", "< 256 KB", "< 4 MB", "< 64 MB", "< 1 GB", "< 16 GB", ">= 16 GB"};
+
+    static class DirectoryTotal {
+        final String path;
+        final DirectoryTotal parent;   // nearest tracked ancestor, or null
+        final AtomicLong bytes = new AtomicLong(0);
+        final AtomicLong files = new AtomicLong(0);
+
+        DirectoryTotal(String path, DirectoryTotal parent) {
+            this.path = path;
+            this.parent = parent;
+        }
+    }
+
+    final AtomicLong fileCount = new AtomicLong(0);
+    final AtomicLong directoryCount = new AtomicLong(0);
+    final AtomicLong totalBytes = new AtomicLong(0);
+    final AtomicLongArray bucketCounts = new AtomicLongArray(BUCKET_NAMES.length);
+    final AtomicLongArray bucketBytes = new AtomicLongArray(BUCKET_NAMES.length);
+    private final ConcurrentLinkedQueue<DirectoryTotal> directories = new ConcurrentLinkedQueue<>();
+
+    private String rootPath;
+    private EntryFilter filter;
+    private int trackedDepth;
+
+    private DiskUsage() {
+    }
+
+    /*
+     * Walks the tree at path. Directory totals are kept for the directories at most trackedDepth levels below path.
+     */
+    static DiskUsage compute(ADLStoreClient client, String path, EntryFilter filter, int trackedDepth) throws IOException {
+        DiskUsage du = new DiskUsage();
+        du.filter = filter;
+        du.trackedDepth = trackedDepth;
+        DirectoryEntry root = client.getDirectoryEntry(path);
+        du.rootPath = root.fullName;
+        ParallelTreeWalker<DirectoryTotal> walker = new ParallelTreeWalker<>(client, du.new UsageVisitor(), AdlsTool.threadSetup());
+        walker.walk(root, 0, null);
+        walker.run();
+        return du;
+    }
+
+    /*
+     * The largest tracked directories, largest first
+     */
+    List<DirectoryTotal> largestDirectories(int count) {
+        List<DirectoryTotal> all = new ArrayList<>(directories);
+        Collections.sort(all, new Comparator<DirectoryTotal>() {
+            public int compare(DirectoryTotal a, DirectoryTotal b) {
+                return Long.compare(b.bytes.get(), a.bytes.get());
+            }
+        });
+        return all.subList(0, Math.min(count, all.size()));
+    }
+
+    static int bucketOf(long length) {
+        if (length == 0) return 0;
+        for (int i = 1; i < BUCKET_LIMITS.length; i++) {
+            if (length < BUCKET_LIMITS[i]) return i;
+        }
+        return BUCKET_LIMITS.length;
+    }
+
+    private class UsageVisitor implements ParallelTreeWalker.Visitor<DirectoryTotal> {
+        public DirectoryTotal visitDirectory(DirectoryEntry de, int depth, DirectoryTotal inherited) {
+            String relativePath = EntryFilter.relativePath(rootPath, de.fullName);
+            if (filter.shouldProcess(de, relativePath, depth)) directoryCount.incrementAndGet();
+            if (depth > trackedDepth) return inherited;
+            DirectoryTotal total = new DirectoryTotal(de.fullName, inherited);
+            directories.add(total);
+            return total;
+        }
+
+        public boolean shouldDescend(DirectoryEntry de, int depth, DirectoryTotal state) {
+            return filter.shouldDescend(de.fullName, EntryFilter.relativePath(rootPath, de.fullName), de.name, depth);
+        }
+
+        public void visitFile(DirectoryEntry de, int depth, DirectoryTotal inherited) {
+            if (!filter.shouldProcess(de, EntryFilter.relativePath(rootPath, de.fullName), depth)) return;
+            fileCount.incrementAndGet();
+            totalBytes.addAndGet(de.length);
+            int bucket = bucketOf(de.length);
+            bucketCounts.incrementAndGet(bucket);
+            bucketBytes.addAndGet(bucket, de.length);
+            for (DirectoryTotal t = inherited; t != null; t = t.parent) {
+                t.bytes.addAndGet(de.length);
+                t.files.incrementAndGet();
+            }
+        }
+    }
+}
@@ -0,0 +1,53 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ * See License.txt in the project root for license information.
+ *
+ */
+
+package com.microsoft.azure.datalake.store;
+
+import java.io.IOException;
+
+/**
+ * Main method for the du operation
+ */
+class DiskUsageMain {
+
+    public static void main(RequestedOperation op, ADLStoreClient client, String[] args) {
+        if (args.length != 3) {
+            System.out.println("Illegal number of command-line parameters: " + args.length);
+            AdlsTool.usage(1000);
+        }
+        int top = AdlsTool.getIntProperty("adlstool.du.top", 20);
+        int depth = AdlsTool.getIntProperty("adlstool.du.depth", 3);
+
+        try {
+            long start = System.currentTimeMillis();
+            DiskUsage du = DiskUsage.compute(client, args[2], AdlsTool.getEntryFilter(), depth);
+            long stop = System.currentTimeMillis();
+
+            System.out.println();
+            System.out.println("COMPLETE");
+            System.out.println("# of Files: " + du.fileCount.get());
+            System.out.println("# of Directories: " + du.directoryCount.get());
+            System.out.println("Total number of Bytes: " + du.totalBytes.get());
+            System.out.println("File sizes:");
+            for (int i = 0; i < DiskUsage.BUCKET_NAMES.length; i++) {
+                System.out.println(String.format("  %-9s %15d files %20d bytes", DiskUsage.BUCKET_NAMES[i],
+                        du.bucketCounts.get(i), du.bucketBytes.get(i)));
+            }
+            if (top > 0) {
+                System.out.println("Largest directories (up to " + depth + " levels below " + args[2] + "):");
+                for (DiskUsage.DirectoryTotal d : du.largestDirectories(top)) {
+                    System.out.println(String.format("  %20d bytes %15d files  %s", d.bytes.get(), d.files.get(), d.path));
+                }
+            }
+            System.out.println("Time taken: " + AdlsTool.timeString(stop - start));
+        } catch (IOException ex) {
+            System.out.println("Error computing disk usage");
+            ex.printStackTrace();
+            AdlsTool.exit(5001);
+        }
+    }
+}
@@ -29,7 +29,17 @@ public class DownloaderMain {
         IfExists overwriteOption = overwrite != null ? IfExists.OVERWRITE : IfExists.FAIL; 
         try {
             long start = System.currentTimeMillis();
-            Stats R = RemoteCopy.download(srcPath, dstPath, client, overwriteOption);
+            Stats R;
+            if(dstPath.equals(StreamDownloader.STDOUT)) {
+            	if(DaemonMain.isRunningJob()) {
+            		System.out.println("Downloads to stdout are not supported by the daemon");
+            		AdlsTool.exit(1011);
+            	}
+            	R = StreamDownloader.download(srcPath, client);
+            } else {
+            	R = RemoteCopy.download(srcPath, dstPath, client, overwriteOption,
+            			ShardedTransfer.fromProperties(args[1]));
+            }
             long stop = System.currentTimeMillis();
 
             if(R.getSkippedTransfers().size() + R.getFailedTransfers().size() == 0) {
@@ -40,6 +50,10 @@ public class DownloaderMain {
             System.out.println("Time taken: " + AdlsTool.timeString(stop - start));
             System.out.println("# of Files Downloaded: " + R.getSuccessfulTransfers().size());
             System.out.println("Total number of Bytes downloaded: " + R.totalSizeInBytes);
+            if(R.timeToFirstFileInMilliSeconds >= 0) {
+            	System.out.println("Time to first completed file: " + AdlsTool.timeString(R.timeToFirstFileInMilliSeconds));
+            }
+            System.out.println("Most files in progress at once: " + R.maxFilesInProgress);
             if(R.getSkippedTransfers().size() + R.getFailedTransfers().size() > 0) {
             	System.out.println("Failed downloads:");
                 for(String file: R.getFailedTransfers()) {
@@ -54,7 +68,7 @@ public class DownloaderMain {
             System.out.println("Error downloading files");
             System.out.println(ex.getMessage());
             ex.printStackTrace();
-            System.exit(5001);
+            AdlsTool.exit(5001);
         }
     }
 
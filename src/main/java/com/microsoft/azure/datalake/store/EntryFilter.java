@@ -0,0 +1,287 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ * See License.txt in the project root for license information.
+ *
+ */
+
+package com.microsoft.azure.datalake.store;
+
+import java.io.File;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.TimeZone;
+
+/**
+ * Pruning rules applied while a directory tree is enumerated. Excluded directories and directories below the
+ * maximum depth are never listed, and entries that do not pass the filter are never processed.
+ * <P>
+ * Depth is counted from the root of the traversal, which is at depth 0. Path patterns follow the rules of
+ * {@link PathPattern}. An empty filter accepts everything.
+ */
+public class EntryFilter {
+
+    /**
+     * Which kinds of entries are processed. Directories are traversed regardless of this setting.
+     */
+    public enum EntryTypes { all, files, dirs }
+
+    static final int ENCODED_FIELDS = 8;   // see encode
+
+    private final List<PathPattern> includes = new ArrayList<>();
+    private final List<PathPattern> excludes = new ArrayList<>();
+    private int maxDepth = -1;
+    private EntryTypes entryTypes = EntryTypes.all;
+    private long modifiedAfter = Long.MIN_VALUE;
+    private long modifiedBefore = Long.MAX_VALUE;
+    private long minSize = 0;
+    private long maxSize = Long.MAX_VALUE;
+
+    /**
+     * Only process entries matching at least one include pattern. Directories are still traversed.
+     *
+     * @param glob the pattern
+     * @return {@code this}, for chaining
+     */
+    public EntryFilter addInclude(String glob) {
+        includes.add(new PathPattern(glob));
+        return this;
+    }
+
+    /**
+     * Skip entries matching the pattern. A matching directory is not listed, so its subtree is pruned.
+     *
+     * @param glob the pattern
+     * @return {@code this}, for chaining
+     */
+    public EntryFilter addExclude(String glob) {
+        excludes.add(new PathPattern(glob));
+        return this;
+    }
+
+    /**
+     * @param maxDepth deepest level to process; negative for no limit
+     * @return {@code this}, for chaining
+     */
+    public EntryFilter setMaxDepth(int maxDepth) {
+        this.maxDepth = maxDepth;
+        return this;
+    }
+
+    /**
+     * @param entryTypes the kinds of entries to process
+     * @return {@code this}, for chaining
+     */
+    public EntryFilter setEntryTypes(EntryTypes entryTypes) {
+        this.entryTypes = entryTypes;
+        return this;
+    }
+
+    /**
+     * @param time only process entries last modified at or after this time
+     * @return {@code this}, for chaining
+     */
+    public EntryFilter setModifiedAfter(Date time) {
+        this.modifiedAfter = time.getTime();
+        return this;
+    }
+
+    /**
+     * @param time only process entries last modified before this time
+     * @return {@code this}, for chaining
+     */
+    public EntryFilter setModifiedBefore(Date time) {
+        this.modifiedBefore = time.getTime();
+        return this;
+    }
+
+    /**
+     * @param size only process files of at least this many bytes
+     * @return {@code this}, for chaining
+     */
+    public EntryFilter setMinSize(long size) {
+        this.minSize = size;
+        return this;
+    }
+
+    /**
+     * @param size only process files of at most this many bytes
+     * @return {@code this}, for chaining
+     */
+    public EntryFilter setMaxSize(long size) {
+        this.maxSize = size;
+        return this;
+    }
+
+    /*
+     * Encodes the filter as ENCODED_FIELDS tab-separated fields, with ';'-separated globs and the times already
+     * resolved, so shard workers apply exactly the filter of the coordinator.
+     */
+    String encode() {
+        return join(includes) + '\t' + join(excludes) + '\t' + maxDepth + '\t' + entryTypes + '\t'
+                + modifiedAfter + '\t' + modifiedBefore + '\t' + minSize + '\t' + maxSize;
+    }
+
+    static EntryFilter decode(String[] fields, int offset) {
+        if (fields.length - offset < ENCODED_FIELDS) throw new IllegalArgumentException("Malformed encoded filter");
+        EntryFilter filter = new EntryFilter();
+        for (String glob : fields[offset].split(";")) if (!glob.isEmpty()) filter.addInclude(glob);
+        for (String glob : fields[offset + 1].split(";")) if (!glob.isEmpty()) filter.addExclude(glob);
+        filter.maxDepth = Integer.parseInt(fields[offset + 2]);
+        filter.entryTypes = EntryTypes.valueOf(fields[offset + 3]);
+        filter.modifiedAfter = Long.parseLong(fields[offset + 4]);
+        filter.modifiedBefore = Long.parseLong(fields[offset + 5]);
+        filter.minSize = Long.parseLong(fields[offset + 6]);
+        filter.maxSize = Long.parseLong(fields[offset + 7]);
+        return filter;
+    }
+
+    private static String join(List<PathPattern> patterns) {
+        StringBuilder sb = new StringBuilder();
+        for (PathPattern p : patterns) {
+            if (sb.length() > 0) sb.append(';');
+            sb.append(p.toString());
+        }
+        return sb.toString();
+    }
+
+    /*
+     * True if the filter accepts everything, so callers can skip computing paths and depths
+     */
+    boolean acceptsEverything() {
+        return includes.isEmpty() && excludes.isEmpty() && maxDepth < 0 && entryTypes == EntryTypes.all
+                && modifiedAfter == Long.MIN_VALUE && modifiedBefore == Long.MAX_VALUE
+                && minSize == 0 && maxSize == Long.MAX_VALUE;
+    }
+
+    /*
+     * Whether the directory should be listed. Called for directories only.
+     */
+    boolean shouldDescend(String absolutePath, String relativePath, String name, int depth) {
+        if (maxDepth >= 0 && depth >= maxDepth) return false;
+        return !isExcluded(absolutePath, relativePath, name);
+    }
+
+    /*
+     * Whether the entry should be processed.
+     */
+    boolean shouldProcess(DirectoryEntry de, String relativePath, int depth) {
+        if (maxDepth >= 0 && depth > maxDepth) return false;
+        if (de.type == DirectoryEntryType.FILE && entryTypes == EntryTypes.dirs) return false;
+        if (de.type == DirectoryEntryType.DIRECTORY && entryTypes == EntryTypes.files) return false;
+        if (de.type == DirectoryEntryType.FILE && (de.length < minSize || de.length > maxSize)) return false;
+        if (de.lastModifiedTime != null) {
+            long mtime = de.lastModifiedTime.getTime();
+            if (mtime < modifiedAfter || mtime >= modifiedBefore) return false;
+        }
+        if (isExcluded(de.fullName, relativePath, de.name)) return false;
+        return includes.isEmpty() || anyMatch(includes, de.fullName, relativePath, de.name);
+    }
+
+    /*
+     * Whether a local file or directory should be processed, for uploads. Paths are matched with '/' as the
+     * separator.
+     */
+    boolean shouldProcess(File f, String absolutePath, String relativePath, int depth) {
+        if (maxDepth >= 0 && depth > maxDepth) return false;
+        boolean isDirectory = f.isDirectory();
+        if (!isDirectory && entryTypes == EntryTypes.dirs) return false;
+        if (isDirectory && entryTypes == EntryTypes.files) return false;
+        if (!isDirectory && (minSize > 0 || maxSize < Long.MAX_VALUE)) {
+            long length = f.length();
+            if (length < minSize || length > maxSize) return false;
+        }
+        if (modifiedAfter != Long.MIN_VALUE || modifiedBefore != Long.MAX_VALUE) {
+            long mtime = f.lastModified();
+            if (mtime < modifiedAfter || mtime >= modifiedBefore) return false;
+        }
+        if (isExcluded(absolutePath, relativePath, f.getName())) return false;
+        return includes.isEmpty() || anyMatch(includes, absolutePath, relativePath, f.getName());
+    }
+
+    private boolean isExcluded(String absolutePath, String relativePath, String name) {
+        return anyMatch(excludes, absolutePath, relativePath, name);
+    }
+
+    private static boolean anyMatch(List<PathPattern> patterns, String absolutePath, String relativePath, String name) {
+        for (PathPattern p : patterns) {
+            if (p.matches(absolutePath, relativePath, name)) return true;
+        }
+        return false;
+    }
+
+    /*
+     * Path of an entry relative to the root of the traversal, without a leading '/'; empty for the root itself and
+     * for paths outside it, such as /database/x with the root /data
+     */
+    static String relativePath(String root, String path) {
+        if (path.length() <= root.length() || !path.startsWith(root)) return "";
+        if (!root.endsWith("/") && path.charAt(root.length()) != '/') return "";
+        int start = root.length();
+        while (start < path.length() && path.charAt(start) == '/') start++;
+        return path.substring(start);
+    }
+
+    /**
+     * Parses a point in time. Accepts a duration back from now ({@code 90s}, {@code 30m}, {@code 24h}, {@code 7d}),
+     * a UTC date ({@code yyyy-MM-dd}), a UTC date and time ({@code yyyy-MM-ddTHH:mm:ss}) or milliseconds since the
+     * epoch.
+     *
+     * @param value the string to parse
+     * @return the point in time
+     * @throws IllegalArgumentException if the string cannot be parsed
+     */
+    public static Date parseTime(String value) {
+        String v = value.trim();
+        try {
+            char unit = v.isEmpty() ? ' ' : Character.toLowerCase(v.charAt(v.length() - 1));
+            long multiplier = (unit == 's') ? 1000L : (unit == 'm') ? 60000L : (unit == 'h') ? 3600000L
+                    : (unit == 'd') ? 86400000L : 0;
+            if (multiplier != 0) {
+                long amount = Long.parseLong(v.substring(0, v.length() - 1));
+                return new Date(System.currentTimeMillis() - amount * multiplier);
+            }
+            if (v.matches("\\d{4}-\\d{2}-\\d{2}")) return utcFormat("yyyy-MM-dd").parse(v);
+            if (v.matches("\\d{4}-\\d{2}-\\d{2}T\\d{2}:\\d{2}:\\d{2}")) return utcFormat("yyyy-MM-dd'T'HH:mm:ss").parse(v);
+            return new Date(Long.parseLong(v));
+        } catch (NumberFormatException | ParseException ex) {
+            throw new IllegalArgumentException("Illegal time: " + value);
+        }
+    }
+
+    /**
+     * Parses a size in bytes, with an optional K, M, G or T suffix (powers of 1024).
+     *
+     * @param value the string to parse
+     * @return the size in bytes
+     * @throws IllegalArgumentException if the string cannot be parsed
+     */
+    public static long parseSize(String value) {
+        String v = value.trim().toUpperCase();
+        if (v.endsWith("B")) v = v.substring(0, v.length() - 1);
+        int shift = 0;
+        char unit = v.isEmpty() ? ' ' : v.charAt(v.length() - 1);
+        if (unit == 'K') shift = 10;
+        else if (unit == 'M') shift = 20;
+        else if (unit == 'G') shift = 30;
+        else if (unit == 'T') shift = 40;
+        if (shift != 0) v = v.substring(0, v.length() - 1);
+        try {
+            long size = Long.parseLong(v.trim());
+            if (size < 0) throw new IllegalArgumentException("Illegal size: " + value);
+            return size << shift;
+        } catch (NumberFormatException ex) {
+            throw new IllegalArgumentException("Illegal size: " + value);
+        }
+    }
+
+    private static SimpleDateFormat utcFormat(String format) {
+        SimpleDateFormat f = new SimpleDateFormat(format);
+        f.setTimeZone(TimeZone.getTimeZone("UTC"));
+        f.setLenient(false);
+        return f;
+    }
+}
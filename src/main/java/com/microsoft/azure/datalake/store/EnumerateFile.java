@@ -4,9 +4,20 @@ import com.microsoft.azure.datalake.store.Job.JobType;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.BufferedReader;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 ;
 /*
@@ -17,23 +28,31 @@ class EnumerateFile implements Runnable {
 	private static final Logger log = LoggerFactory.getLogger("com.microsoft.azure.datalake.store.FileUploader");
 	private ProcessingQueue<MetaData> metaDataQ;
 	private ConsumerQueue<Job> jobQ;
-	private static long chunkSize = 64 * 1024 * 1024; // 256 MB
+	private static final long defaultChunkSize = 64 * 1024 * 1024;
+	private static long chunkSize = defaultChunkSize; // 256 MB
 	private static long threshhold = 64 * 1024 * 1024; // 356 MB
-	private long bytesToTransmit;
+	private final AtomicLong bytesToTransmit = new AtomicLong(0); // read by the status bar while enumerating
+	private final AtomicLong filesToTransmit = new AtomicLong(0);
 	private boolean isDownload = true;
+	private boolean isCopy = false;
 	private ADLStoreClient client;
 	private static int maxEntries = 2000;
+	private EntryFilter filter = AdlsTool.getEntryFilter();
+	private String rootPath; // '/'-separated path of the source, for relative paths in filters
+	private String manifest = System.getProperty("adlstool.manifest");
+	private MetaData root;
+	private static final int manifestThreads = 16;
+	private static final int manifestMaxPending = 10000;
+	private List<String> manifestErrors = Collections.synchronizedList(new ArrayList<String>());
 	
 	EnumerateFile(File srcDir, String destination, ProcessingQueue<MetaData> metaDataQ, ConsumerQueue<Job> jobQ) {
 		this.metaDataQ = metaDataQ;
 		this.jobQ = jobQ;
 		this.isDownload = false;
-		long size = AdlsTool.getChunkSize(chunkSize);
-		if(size != chunkSize) {
-			chunkSize = size;
-			threshhold = size;
-		}
-		metaDataQ.add(new MetaData(srcDir, destination));
+		chunkSize = AdlsTool.getChunkSize(defaultChunkSize); // not the previous value, a daemon runs many jobs
+		threshhold = chunkSize;
+		rootPath = srcDir.getAbsolutePath().replace(File.separatorChar, '/');
+		queueRoot(new MetaData(srcDir, destination));
 	}
 	
 	EnumerateFile(DirectoryEntry source, String destination, 
@@ -41,15 +60,39 @@ class EnumerateFile implements Runnable {
 		this.metaDataQ = metaDataQ;
 		this.jobQ = jobQ;
 		this.isDownload = true;
-		long size = AdlsTool.getChunkSize(chunkSize);
-		if(size != chunkSize) {
-			chunkSize = size;
-			threshhold = size;
-		}
+		chunkSize = AdlsTool.getChunkSize(defaultChunkSize);
+		threshhold = chunkSize;
+		this.client = client;
+		rootPath = source.fullName;
+		queueRoot(new MetaData(source, destination));
+	}
+	
+	/*
+	 * Enumerates an ADLS directory for a copy to another ADLS path
+	 */
+	EnumerateFile(DirectoryEntry source, String destination, 
+			      ProcessingQueue<MetaData> metaDataQ, ConsumerQueue<Job> jobQ, ADLStoreClient client, boolean copy) {
+		this.metaDataQ = metaDataQ;
+		this.jobQ = jobQ;
+		this.isDownload = true;
+		this.isCopy = copy;
+		chunkSize = AdlsTool.getChunkSize(defaultChunkSize);
+		threshhold = chunkSize;
 		this.client = client;
-		metaDataQ.add(new MetaData(source, destination));
+		rootPath = source.fullName;
+		queueRoot(new MetaData(source, destination, copy));
+	}
+	private void queueRoot(MetaData root) {
+		this.root = root;
+		if(manifest == null) {
+			metaDataQ.add(root);
+		}
 	}
+	
 	public void run() {
+		if(manifest != null) {
+			processManifest();
+		}
 		if(isDownload) {
 			enumerateAdlsFiles();
 		} else {
@@ -70,13 +113,21 @@ class EnumerateFile implements Runnable {
 						String dstPrefix = front.getDestinationFinalPath();
 						for(DirectoryEntry dEntry: subDir) {
 							lastEntry = dEntry.name;
-							metaDataQ.add(new MetaData(dEntry, dstPrefix));
+							if(!accept(dEntry, front.depth + 1)) {
+								continue;
+							}
+							MetaData child = isCopy ? new MetaData(dEntry, dstPrefix, true) : new MetaData(dEntry, dstPrefix);
+							child.depth = front.depth + 1;
+							metaDataQ.add(child);
 						}
 					} while(subDir.size() == maxEntries);
+					if(isCopy && lastEntry == null) {
+						generateMkDirJob(front);
+					}
 				} catch (IOException e) {
 					e.printStackTrace();
 				}
-			} else if(source.type == DirectoryEntryType.FILE) {
+			} else if(source.type == DirectoryEntryType.FILE && (front.depth > 0 || accept(source, 0))) {
 				generateDownloadFileJob(front);
 			}
 			metaDataQ.unregister();
@@ -94,13 +145,18 @@ class EnumerateFile implements Runnable {
 					if(subDir != null) {
 						String dstPrefix = front.getDestinationFinalPath();
 						for(File sub : subDir) {
-							metaDataQ.add(new MetaData(sub, dstPrefix));
+							if(!accept(sub, front.depth + 1)) {
+								continue;
+							}
+							MetaData child = new MetaData(sub, dstPrefix);
+							child.depth = front.depth + 1;
+							metaDataQ.add(child);
 						}
 						if(subDir.length == 0) {
 							generateMkDirJob(front);
 						}
 					}
-				} else if(source.isFile()) {
+				} else if(source.isFile() && (front.depth > 0 || accept(source, 0))) {
 					generateUploadJob(front);
 				}
 			} catch (Exception e) {
@@ -111,11 +167,182 @@ class EnumerateFile implements Runnable {
 		}
 	}
 	
+	/*
+	 * Generates the jobs for the files listed in the manifest instead of walking the source. Each line holds a
+	 * path, relative to the source unless absolute, optionally followed by a tab and the destination path of the
+	 * file, relative to the destination path given on the command line unless absolute; otherwise the file goes
+	 * where a walk of the source would put it, or for absolute paths outside the source, into the directory the
+	 * source is copied to. The manifest is streamed, and
+	 * the lines are resolved by a pool of threads, so remote lookups for downloads overlap. Directories listed in
+	 * the manifest are walked as usual afterwards.
+	 */
+	private void processManifest() {
+		ExecutorService pool = Executors.newFixedThreadPool(manifestThreads);
+		final Semaphore pending = new Semaphore(manifestMaxPending);
+		try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(manifest), StandardCharsets.UTF_8))) {
+			String line;
+			while((line = reader.readLine()) != null) {
+				if(line.trim().isEmpty() || line.startsWith("#")) {
+					continue;
+				}
+				final String entry = line;
+				pending.acquire();
+				pool.execute(new Runnable() {
+					public void run() {
+						try {
+							processManifestEntry(entry);
+						} catch (Exception e) {
+							log.error("Manifest entry " + entry + ": " + e.getMessage());
+							manifestErrors.add(entry);
+						} finally {
+							pending.release();
+						}
+					}
+				});
+			}
+		} catch (IOException e) {
+			log.error("Error reading manifest " + manifest + ": " + e.getMessage());
+			manifestErrors.add(manifest);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			pool.shutdown();
+			try {
+				pool.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+	
+	private void processManifestEntry(String line) throws IOException {
+		String[] fields = line.split("\t", 2);
+		String path = fields[0].trim();
+		String destination = fields.length > 1 && !fields[1].trim().isEmpty() ? fields[1].trim() : null;
+		char separator = isDownload && !isCopy ? File.separatorChar : '/';
+		if(destination != null) {
+			destination = resolveDestination(destination, separator);
+		}
+		
+		String relativePath;
+		MetaData data;
+		if(isDownload) {
+			String fullPath = path.startsWith("/") ? path : rootPath + (rootPath.endsWith("/") ? "" : "/") + path;
+			DirectoryEntry entry = client.getDirectoryEntry(fullPath);
+			relativePath = EntryFilter.relativePath(rootPath, entry.fullName);
+			if(relativePath.isEmpty()) {
+				relativePath = entry.name;
+			}
+			if(!accept(entry, depthOf(relativePath))) {
+				return;
+			}
+			String parent = destinationParent(destination, relativePath, separator);
+			data = isCopy ? new MetaData(entry, parent, true) : new MetaData(entry, parent);
+		} else {
+			File file = new File(path).isAbsolute() ? new File(path) : new File(root.sourceFile, path);
+			if(!file.exists()) {
+				throw new IOException("File not found: " + file.getPath());
+			}
+			relativePath = EntryFilter.relativePath(rootPath, file.getAbsolutePath().replace(File.separatorChar, '/'));
+			if(relativePath.isEmpty()) {
+				relativePath = file.getName();
+			}
+			if(!accept(file, depthOf(relativePath))) {
+				return;
+			}
+			data = new MetaData(file, destinationParent(destination, relativePath, separator));
+		}
+		if(destination != null) {
+			data.setDestinationFileName(destination.substring(destination.lastIndexOf(separator) + 1));
+		}
+		data.depth = depthOf(relativePath);
+		
+		if(isDownload ? data.sourceEntry.type == DirectoryEntryType.DIRECTORY : data.sourceFile.isDirectory()) {
+			metaDataQ.add(data);
+		} else if(isDownload) {
+			generateDownloadFileJob(data);
+		} else {
+			generateUploadJob(data);
+		}
+	}
+	
+	/*
+	 * Resolves a relative destination of a manifest entry against the destination path of the command line, not
+	 * the directory the source is copied to within it
+	 */
+	private String resolveDestination(String destination, char separator) {
+		String base = root.destinationPath;   // ends with the separator
+		if(separator != '/') {
+			return new File(destination).isAbsolute() ? destination : new File(base, destination).getPath();
+		}
+		return destination.startsWith("/") ? destination : base + destination;
+	}
+	
+	/*
+	 * Directory a manifest entry goes to: the one given in the manifest, or the one it has in a walk of the source
+	 */
+	private String destinationParent(String destination, String relativePath, char separator) {
+		if(destination != null) {
+			int last = destination.lastIndexOf(separator);
+			return last <= 0 ? destination.substring(0, last + 1) : destination.substring(0, last);
+		}
+		String parent = root.getDestinationFinalPath();
+		int last = relativePath.lastIndexOf('/');
+		if(last > 0) {
+			parent = parent + separator + relativePath.substring(0, last).replace('/', separator);
+		}
+		return parent;
+	}
+	
+	private static int depthOf(String relativePath) {
+		int depth = 1;
+		for(int i = 0; i < relativePath.length(); i++) {
+			if(relativePath.charAt(i) == '/') {
+				depth++;
+			}
+		}
+		return depth;
+	}
+	
+	/*
+	 * Manifest lines that could not be resolved
+	 */
+	List<String> getManifestErrors() {
+		return manifestErrors;
+	}
+	
+	/*
+	 * Applies the filter during enumeration: directories that fail it are not listed, and files that fail it
+	 * get no MetaData.
+	 */
+	private boolean accept(DirectoryEntry entry, int depth) {
+		if(filter.acceptsEverything()) {
+			return true;
+		}
+		String relativePath = EntryFilter.relativePath(rootPath, entry.fullName);
+		if(entry.type == DirectoryEntryType.DIRECTORY) {
+			return filter.shouldDescend(entry.fullName, relativePath, entry.name, depth);
+		}
+		return filter.shouldProcess(entry, relativePath, depth);
+	}
+	
+	private boolean accept(File file, int depth) {
+		if(filter.acceptsEverything()) {
+			return true;
+		}
+		String absolutePath = file.getAbsolutePath().replace(File.separatorChar, '/');
+		String relativePath = EntryFilter.relativePath(rootPath, absolutePath);
+		if(file.isDirectory()) {
+			return filter.shouldDescend(absolutePath, relativePath, file.getName(), depth);
+		}
+		return filter.shouldProcess(file, absolutePath, relativePath, depth);
+	}
+	
 	private void generateMkDirJob(MetaData front) {
 		jobQ.add(new Job(front, 0, 0, 0, JobType.MKDIR));
 	}
 	
-	private void generateUploadJob(MetaData front) {
+	private synchronized void generateUploadJob(MetaData front) {
 		long size = 0, chunks = 0, offset = 0;
 		do {
 			if(front.size() - offset <= threshhold) {
@@ -129,10 +356,11 @@ class EnumerateFile implements Runnable {
 		} while(offset < front.size());
 		log.debug("Generated " + front.splits + " number of upload jobs for file " 
 				+ front.getSourceFilePath() + " with destination " + front.getDestinationIntermediatePath());
-		bytesToTransmit += front.size();
+		bytesToTransmit.addAndGet(front.size());
+		filesToTransmit.incrementAndGet();
 	}
 	
-	private void generateDownloadFileJob(MetaData entry) {
+	private synchronized void generateDownloadFileJob(MetaData entry) {
 		long size = 0, chunks = 0, offset = 0;
 		long totalLength = entry.sourceEntry.length;
 		do {
@@ -141,16 +369,25 @@ class EnumerateFile implements Runnable {
 			} else {
 				size = chunkSize;
 			}
-			jobQ.add(new Job(entry, offset, size, chunks, JobType.FILEDOWNLOAD));
+			jobQ.add(new Job(entry, offset, size, chunks, isCopy ? JobType.FILECOPY : JobType.FILEDOWNLOAD));
 			chunks++;
 			offset += size;
 		} while(offset < totalLength);
-		bytesToTransmit += totalLength;
+		bytesToTransmit.addAndGet(totalLength);
+		filesToTransmit.incrementAndGet();
 		log.debug("Generated " + chunks + " number of download jobs for size: " + totalLength);
 	}
 	
+	static long getChunkSize() {
+		return chunkSize;
+	}
+	
 	public long getBytesToTransmit() {
-		return bytesToTransmit;
+		return bytesToTransmit.get();
+	}
+	
+	long getFilesToTransmit() {
+		return filesToTransmit.get();
 	}
 	
 	static long getNumberOfFileChunks(long size) {
@@ -0,0 +1,83 @@
+package com.microsoft.azure.datalake.store;
+
+import com.microsoft.azure.datalake.store.JobExecutor.UploadStatus;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * Tracks files, rather than chunks, through a transfer: how many have been started but not finished, the
+ * most that were at any time, and how long it took until the first one was complete. Also keeps the chunk
+ * counters of all executors together for the status bar.
+ */
+class FileProgress {
+	private final long startTime = System.currentTimeMillis();
+	private final AtomicLong filesStarted = new AtomicLong(0);
+	private final AtomicLong filesFinished = new AtomicLong(0);
+	private final AtomicLong maxFilesInProgress = new AtomicLong(0);
+	private final AtomicLong timeToFirstFile = new AtomicLong(-1);
+	private final AtomicLong chunksStarted = new AtomicLong(0);
+	private final AtomicLong chunksFinished = new AtomicLong(0);
+	private final AtomicLong bytesTransferred = new AtomicLong(0);
+	private final AtomicLong bytesSettled = new AtomicLong(0); // transferred, skipped or failed
+	
+	void chunkStarted(MetaData data) {
+		chunksStarted.incrementAndGet();
+		if(data.markStarted()) {
+			long inProgress = filesStarted.incrementAndGet() - filesFinished.get();
+			long max;
+			while(inProgress > (max = maxFilesInProgress.get()) && !maxFilesInProgress.compareAndSet(max, inProgress));
+		}
+	}
+	
+	/*
+	 * Called for every attempt started; size is the size of the chunk when this attempt decides it, 0 otherwise
+	 */
+	void chunkFinished(UploadStatus status, long size) {
+		chunksFinished.incrementAndGet();
+		bytesSettled.addAndGet(size);
+		if(status == UploadStatus.successful) {
+			bytesTransferred.addAndGet(size);
+		}
+	}
+	
+	/*
+	 * Called for every file, whatever its status; only transferred files count for the time to the first file
+	 */
+	void fileFinished(UploadStatus status) {
+		filesFinished.incrementAndGet();
+		if(status == UploadStatus.successful) {
+			timeToFirstFile.compareAndSet(-1, System.currentTimeMillis() - startTime);
+		}
+	}
+	
+	long getFilesInProgress() {
+		return filesStarted.get() - filesFinished.get();
+	}
+	
+	long getFilesFinished() {
+		return filesFinished.get();
+	}
+	
+	long getChunksInFlight() {
+		return chunksStarted.get() - chunksFinished.get();
+	}
+	
+	long getBytesTransferred() {
+		return bytesTransferred.get();
+	}
+	
+	long getBytesSettled() {
+		return bytesSettled.get();
+	}
+	
+	long getMaxFilesInProgress() {
+		return maxFilesInProgress.get();
+	}
+	
+	/*
+	 * Milliseconds from the start of the transfer until the first file was transferred, or -1
+	 */
+	long getTimeToFirstFile() {
+		return timeToFirstFile.get();
+	}
+}
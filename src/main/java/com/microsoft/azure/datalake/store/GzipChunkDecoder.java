@@ -0,0 +1,286 @@
+package com.microsoft.azure.datalake.store;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/*
+ * Decompresses the members of a (multi-member) gzip file chunk by chunk, so the chunks of a file can be
+ * decompressed on different threads.
+ *
+ * Members are only ever found where the one before them ends, never by scanning for the gzip magic bytes: a match
+ * inside a member, such as a .gz file stored verbatim in a tar.gz, can inflate cleanly and match its trailer, and
+ * cannot be told apart from a real member. A chunk that starts with a member decodes it and the members chained
+ * after it, up to the first one that starts at the beginning of a later chunk, which that chunk decodes itself.
+ * A chunk that does not start with a member decodes nothing; the members starting in it belong to the chain of an
+ * earlier chunk.
+ *
+ * A chunk can still start with a false member, one inside a member of an earlier chunk. Each chunk returns the
+ * members it decoded, and assemble keeps only those that chain from the start of the file.
+ *
+ * Files whose members line up with the chunks, as written by compressed uploads, read each byte once and are
+ * decompressed in parallel. Other files, such as a file with one large member, are decompressed by the thread of
+ * their first chunk, and the other chunks read only their first bytes.
+ */
+class GzipChunkDecoder {
+	private static final int FHCRC = 2, FEXTRA = 4, FNAME = 8, FCOMMENT = 16, FRESERVED = 0xe0;
+	private final Source source;
+	private final String name;
+	private final long fileLength, chunkSize;
+	private final byte[] buffer;
+	private final byte[] output;
+	private long bufferStart = 0;
+	private int bufferLength = 0;
+
+	/*
+	 * Ranged reads of the compressed file, as ADLFileInputStream.read(position, ...) does them
+	 */
+	interface Source {
+		int read(long position, byte[] b, int offset, int length) throws IOException;
+	}
+
+	/*
+	 * A member decoded by a chunk: the range [start, end) of the compressed file it takes, and its decompressed length
+	 */
+	static class Member {
+		final long start, end, length;
+
+		Member(long start, long end, long length) {
+			this.start = start;
+			this.end = end;
+			this.length = length;
+		}
+	}
+
+	/*
+	 * @param name of the file, for errors
+	 * @param chunkSize the chunks of the file start at multiples of it
+	 */
+	GzipChunkDecoder(Source source, String name, long fileLength, long chunkSize, byte[] buffer) {
+		this.source = source;
+		this.name = name;
+		this.fileLength = fileLength;
+		this.chunkSize = chunkSize;
+		this.buffer = buffer;
+		this.output = new byte[256 * 1024];
+	}
+
+	/*
+	 * Decompresses the members of the chunk at start into out, and returns them in order. The first chunk of a file
+	 * must start with a member.
+	 */
+	List<Member> decode(long start, FileChannel out) throws IOException {
+		List<Member> members = new ArrayList<>();
+		if(start > 0 && !hasMagic(start)) {
+			return members;
+		}
+		long position = start;
+		do {
+			long mark = out.position();
+			long[] member = decodeMember(position, out);
+			if(member == null) {
+				if(position == 0) {
+					throw new IOException("Not a gzip file: " + name);
+				}
+				// no member here; a false start of a chunk, or a corrupt file, which assemble reports
+				out.truncate(mark);
+				out.position(mark);
+				break;
+			}
+			members.add(new Member(position, position + member[0], member[1]));
+			position += member[0];
+		} while(position < fileLength && position % chunkSize != 0);
+		return members;
+	}
+
+	/*
+	 * Writes the output of the members that chain from the start of the file, in order, to out, and returns its
+	 * length. parts.get(i) holds the output of chunk i and members.get(i) the members it decoded. A member that
+	 * does not start where the one before it ended lies inside another member and is dropped; members that no chunk
+	 * decoded are decoded here.
+	 */
+	long assemble(List<List<Member>> members, List<File> parts, FileChannel out) throws IOException {
+		long expected = 0, written = 0;
+		for(int i = 0; i < parts.size(); i++) {
+			if(members.get(i).isEmpty()) {
+				continue;
+			}
+			try (FileChannel in = FileChannel.open(parts.get(i).toPath(), StandardOpenOption.READ)) {
+				long partOffset = 0;
+				for(Member m : members.get(i)) {
+					if(m.start > expected) {
+						long[] chain = decodeChain(expected, m.start, out);
+						expected = chain[0];
+						written += chain[1];
+					}
+					if(m.start == expected) {
+						for(long copied = 0; copied < m.length; ) {
+							copied += in.transferTo(partOffset + copied, m.length - copied, out);
+						}
+						expected = m.end;
+						written += m.length;
+					}
+					partOffset += m.length;
+				}
+			}
+		}
+		if(expected < fileLength) {
+			written += decodeChain(expected, fileLength, out)[1];
+		}
+		return written;
+	}
+
+	/*
+	 * Decodes the members from position on until one ends at or beyond until; returns {end, decompressed length}
+	 */
+	private long[] decodeChain(long position, long until, FileChannel out) throws IOException {
+		long written = 0;
+		while(position < until) {
+			long[] member = decodeMember(position, out);
+			if(member == null) {
+				throw new IOException("Invalid gzip data at offset " + position + " of " + name);
+			}
+			position += member[0];
+			written += member[1];
+		}
+		return new long[] {position, written};
+	}
+
+	/*
+	 * Reads just the first bytes, so the chunks of a file with one large member do not read more than that
+	 */
+	private boolean hasMagic(long position) throws IOException {
+		byte[] magic = new byte[4];
+		int length = 0, read;
+		while(length < magic.length && (read = source.read(position + length, magic, length, magic.length - length)) > 0) {
+			length += read;
+		}
+		return length == magic.length && (magic[0] & 0xff) == 0x1f && (magic[1] & 0xff) == 0x8b && magic[2] == 8
+				&& (magic[3] & FRESERVED) == 0;
+	}
+
+	/*
+	 * Returns {compressed length, decompressed length} of the member at position, or null if there is no valid one
+	 */
+	private long[] decodeMember(long position, FileChannel out) throws IOException {
+		if(byteAt(position) != 0x1f || byteAt(position + 1) != 0x8b || byteAt(position + 2) != 8) {
+			return null;
+		}
+		int flags = byteAt(position + 3);
+		if((flags & FRESERVED) != 0) {
+			return null;
+		}
+		long p = position + 10;
+		if((flags & FEXTRA) != 0) {
+			int lo = byteAt(p), hi = byteAt(p + 1);
+			if(lo < 0 || hi < 0) {
+				return null;
+			}
+			p += 2 + (lo | (hi << 8));
+		}
+		if((flags & FNAME) != 0 && (p = skipZeroTerminated(p)) < 0) {
+			return null;
+		}
+		if((flags & FCOMMENT) != 0 && (p = skipZeroTerminated(p)) < 0) {
+			return null;
+		}
+		if((flags & FHCRC) != 0) {
+			p += 2;
+		}
+		if(p >= fileLength) {
+			return null;
+		}
+
+		Inflater inflater = new Inflater(true);
+		CRC32 crc = new CRC32();
+		long decompressed = 0;
+		long fed = p;
+		try {
+			while(!inflater.finished()) {
+				if(inflater.needsInput()) {
+					if(byteAt(fed) < 0) {
+						return null;
+					}
+					int offset = (int) (fed - bufferStart);
+					inflater.setInput(buffer, offset, bufferLength - offset);
+					fed = bufferStart + bufferLength;
+				}
+				int n = inflater.inflate(output);
+				if(n == 0 && inflater.needsDictionary()) {
+					return null;
+				}
+				if(n > 0) {
+					crc.update(output, 0, n);
+					ByteBuffer data = ByteBuffer.wrap(output, 0, n);
+					while(data.hasRemaining()) {
+						out.write(data);
+					}
+					decompressed += n;
+				}
+			}
+			long trailer = fed - inflater.getRemaining();
+			if(readInt(trailer) != crc.getValue() || readInt(trailer + 4) != (decompressed & 0xffffffffL)) {
+				return null;
+			}
+			return new long[] {trailer + 8 - position, decompressed};
+		} catch (DataFormatException e) {
+			return null;
+		} finally {
+			inflater.end();
+		}
+	}
+
+	private long skipZeroTerminated(long p) throws IOException {
+		int b;
+		while((b = byteAt(p++)) != 0) {
+			if(b < 0) {
+				return -1;
+			}
+		}
+		return p;
+	}
+
+	private long readInt(long p) throws IOException {
+		long value = 0;
+		for(int i = 3; i >= 0; i--) {
+			int b = byteAt(p + i);
+			if(b < 0) {
+				return -1;
+			}
+			value = (value << 8) | b;
+		}
+		return value;
+	}
+
+	/*
+	 * The byte at position, or -1 past the end of the file. Reads the next buffer-full with ranged reads as needed.
+	 */
+	private int byteAt(long position) throws IOException {
+		if(position < bufferStart || position >= bufferStart + bufferLength) {
+			if(position >= fileLength) {
+				return -1;
+			}
+			bufferStart = position;
+			bufferLength = 0;
+			int length = (int) Math.min(buffer.length, fileLength - position);
+			while(bufferLength < length) {
+				int read = source.read(position + bufferLength, buffer, bufferLength, length - bufferLength);
+				if(read <= 0) {
+					break;
+				}
+				bufferLength += read;
+			}
+			if(bufferLength == 0) {
+				return -1;
+			}
+		}
+		return buffer[(int) (position - bufferStart)] & 0xff;
+	}
+}
@@ -6,9 +6,20 @@ class Job implements Comparable<Job>{
 	MetaData data;
 	long offset, id, size;
 	enum JobType {
-		MKDIR, FILEUPLOAD, CONCATENATE, VERIFY, FILEDOWNLOAD
+		MKDIR, FILEUPLOAD, CONCATENATE, VERIFY, FILEDOWNLOAD, FILECOPY
 	}
 	JobType type;
+	UploadStatus remoteStatus = null; // outcome of a chunk transferred by a shard worker, see ShardedTransfer
+	Job original = null; // set on the second attempt of a straggler, see StragglerTracker
+	volatile boolean cancelled = false; // set on the losing attempt of a hedged chunk
+	boolean piece = false; // split off the end of a running chunk, see splitOff
+	private long claimed; // end of the bytes the running attempt has taken on, see claim
+	/*
+	 * Scheduling policy. With scheduleBySize, the largest chunks of all files go first, which interleaves the files and
+	 * finishes most of them late in the run. Otherwise files are scheduled in the order they were enumerated, with
+	 * their chunks together, so the executors work on as few files at a time as they can and files complete steadily.
+	 */
+	static boolean scheduleBySize = false;
 	Job(MetaData data, long offset, long size, long id, JobType type) {
 		this.data = data;
 		this.offset = offset;
@@ -18,12 +29,51 @@ class Job implements Comparable<Job>{
 	}
 
 	public int compareTo(Job that) {
+		if(!scheduleBySize) {
+			if(this.data.sequence != that.data.sequence) {
+				return Long.compare(this.data.sequence, that.data.sequence);
+			}
+			return Long.compare(this.id, that.id);
+		}
 		if(this.size == that.size) {
 			return Long.compare(this.id, that.id);
 		}
 		return Long.compare(that.size, this.size);
 	}
 	
+	/*
+	 * Takes on the next range of at most length bytes at position for the running attempt, and returns its length;
+	 * 0 once the chunk, as split so far, is done. Bytes taken on are never split off.
+	 */
+	synchronized int claim(long position, int length) {
+		int n = (int) Math.max(0, Math.min(length, offset + size - position));
+		claimed = Math.max(claimed, position + n);
+		return n;
+	}
+	
+	synchronized long remaining() {
+		return offset + size - Math.max(claimed, offset);
+	}
+	
+	/*
+	 * Splits the second half of the bytes the running attempt has not taken on yet off into a job of its own,
+	 * starting at a multiple of alignment from the chunk offset. Returns null if either half would be smaller
+	 * than minSize.
+	 */
+	synchronized Job splitOff(long minSize, long alignment) {
+		long start = Math.max(claimed, offset), end = offset + size;
+		long middle = start + (end - start) / 2;
+		middle -= (middle - offset) % alignment;
+		if(middle - start < minSize || end - middle < minSize) {
+			return null;
+		}
+		Job split = new Job(data, middle, end - middle, id, type);
+		split.piece = true;
+		data.addPiece(split);   // before this attempt can see itself done
+		size = middle - offset;
+		return split;
+	}
+	
 	public boolean isFinalUpload() {
 		return data.isFinalUpload();
 	}
@@ -38,11 +88,18 @@ class Job implements Comparable<Job>{
 	
 	public String getDestinationIntermediatePath() {
 		if(data.splits > 1) {
-			return data.getDestinationIntermediatePath() + id;
+			return getSegmentPath() + (original != null ? StragglerTracker.HEDGE_SUFFIX : "");
 		}
 		return data.getDestinationIntermediatePath();
 	}
 	
+	/*
+	 * Segment of a split upload or copy: chunks by their id, pieces split off them also by their offset
+	 */
+	String getSegmentPath() {
+		return data.getDestinationIntermediatePath() + id + (piece ? "-" + offset : "");
+	}
+	
 	public String getDestinationFinalPath() {
 		return data.getDestinationFinalPath();
 	}
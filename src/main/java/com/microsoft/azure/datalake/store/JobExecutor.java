@@ -5,26 +5,51 @@ import com.microsoft.azure.datalake.store.retrypolicies.ExponentialBackoffPolicy
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.EOFException;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FilterOutputStream;
 import java.io.IOException;
-import java.io.RandomAccessFile;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileAlreadyExistsException;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
 
 class JobExecutor implements Runnable {
 	private static final Logger log = LoggerFactory.getLogger("com.microsoft.azure.datalake.store.FileUploader");
 	final int fourMB = 4 * 1024 * 1024;
 	final int bufSize = fourMB;
+	static final int oneMB = 1024 * 1024;
+	static final int defaultReadBufferSizeMB = 8;
+	static final int maxOpenReadStreams = 4;
+	static final int compressionSampleSize = 1024 * 1024;
+	static final double minCompressionGain = 0.1; // store chunks whose sample shrinks by less than this
 	ConsumerQueue<Job> jobQ;
-	ADLStoreClient client;
+	ADLStoreClient client; // the destination for uploads and copies, the source for downloads
+	ADLStoreClient sourceClient;
 	Stats stats;
 	IfExists overwrite;
+	FileProgress progress;
+	StragglerTracker stragglers = StragglerTracker.NONE;
+	private ReadStreamCache readStreams;
+	private final ReadBufferPool readBuffers = ReadBufferPool.get();
+	private volatile Job current;
 	
 	enum UploadStatus {
 		successful,
@@ -37,6 +62,8 @@ class JobExecutor implements Runnable {
 		int numberOfFailedUploads;
 		long totalTimeTakenInMilliSeconds = 0;
 		AtomicLong totalBytesTransmitted = new AtomicLong(0);
+		long compressionInputBytes, compressionOutputBytes, compressionCpuNanos;
+		int compressedChunks, storedChunks;
 		List<String> successfulTransfers = new ArrayList<>();
 		List<String> failedTransfers =new ArrayList<>();
 		List<String> skippedTransfers = new ArrayList<>();
@@ -56,6 +83,17 @@ class JobExecutor implements Runnable {
 			}
 		}
 		
+		public void updateCompressionStats(long inputBytes, long outputBytes, long cpuNanos, boolean stored) {
+			compressionInputBytes += inputBytes;
+			compressionOutputBytes += outputBytes;
+			compressionCpuNanos += cpuNanos;
+			if(stored) {
+				storedChunks++;
+			} else {
+				compressedChunks++;
+			}
+		}
+		
 		public long getBytesTransferred() {
 			return totalBytesTransmitted.get();
 		}
@@ -81,37 +119,94 @@ class JobExecutor implements Runnable {
 		}
 	}
 	
-	JobExecutor(ConsumerQueue<Job> jobQ, ADLStoreClient client, IfExists overwrite) {
+	JobExecutor(ConsumerQueue<Job> jobQ, ADLStoreClient client, IfExists overwrite, FileProgress progress) {
+		this(jobQ, client, client, overwrite, progress);
+	}
+	
+	/*
+	 * For copies, reading from sourceClient and writing to client
+	 */
+	JobExecutor(ConsumerQueue<Job> jobQ, ADLStoreClient client, ADLStoreClient sourceClient, IfExists overwrite, FileProgress progress) {
 		this.jobQ = jobQ;
 		this.client = client;
+		this.sourceClient = sourceClient;
 		this.overwrite = overwrite;
+		this.progress = progress;
+		this.readStreams = new ReadStreamCache(sourceClient, maxOpenReadStreams);
 		stats = new Stats();
 	}
 	
+	/*
+	 * Size of the ranged reads of a download, set in MB with adlstool.buffersize. It is rounded down to a
+	 * divisor of the chunk size, so every read of every chunk is the same size and starts at a buffer boundary.
+	 */
+	static int getReadBufferSize() {
+		long chunkMB = Math.max(1, EnumerateFile.getChunkSize() / oneMB);
+		long sizeMB = Math.min(Math.max(1, AdlsTool.getIntProperty("adlstool.buffersize", defaultReadBufferSizeMB)), chunkMB);
+		while(chunkMB % sizeMB != 0) {
+			sizeMB--;
+		}
+		return (int) Math.min(sizeMB * oneMB, EnumerateFile.getChunkSize());
+	}
+	
 	public void run() {
 		Job job;
 		stats.begin();
-		while((job = jobQ.poll()) != null) {
+		while((job = jobQ.poll()) != null || (job = stragglers.awaitWork()) != null) {
+			current = job;
 			if(job.type == JobType.MKDIR) {
 				mkDir(job);
-			} else if(job.type == JobType.FILEUPLOAD){
+			} else if(job.type == JobType.FILEUPLOAD || job.type == JobType.FILECOPY){
 				uploadFile(job);
 			} else if(job.type == JobType.FILEDOWNLOAD) {
 				downloadFile(job);
 			}
 		}
+		readStreams.closeAll();
 		stats.end();
 		log.debug("Done uploading file");
 	}
 	
+	/*
+	 * The current job is a losing attempt of a hedged chunk, and is stopped at the next buffer boundary
+	 */
+	private boolean cancelled() {
+		Job job = current;
+		return job != null && job.cancelled;
+	}
+	
+	/*
+	 * Length of the next range to transfer at position, at most length bytes; 0 once done. The current job may be
+	 * split meanwhile, see StragglerTracker; shard workers, which run no job, transfer the range they were given.
+	 */
+	private int claim(long position, long end, int length) {
+		Job job = current;
+		if(job == null) {
+			return (int) Math.max(0, Math.min(length, end - position));
+		}
+		return job.claim(position, length);
+	}
+	
 	void downloadFile(Job job) {
-		UploadStatus status = downloadFileInternal(job);
+		progress.chunkStarted(job.data);
+		stragglers.started(job);
+		UploadStatus status = job.remoteStatus != null ? job.remoteStatus : downloadFileInternal(job);
+		boolean decides = stragglers.finished(job, status, client);
+		progress.chunkFinished(status, decides ? job.size : 0);
+		if(!decides) {
+			return;
+		}
 		job.updateStatus(status);
 		stats.updateChunkStats(status, job.size);
 		if(job.isFinalUpload()) {
 			if(!skipDownload(job)) {
 				status = job.fileUploadStatus();
 			}
+			if(job.data.decompress && status != UploadStatus.skipped) {
+				if(!assembleDecompressedParts(job, status == UploadStatus.successful)) {
+					status = UploadStatus.failed;
+				}
+			}
 			if(status == UploadStatus.successful) {
 				if(!(renameLocalFile(job) && verifyDownload(job))) {
 					status = UploadStatus.failed;
@@ -122,6 +217,7 @@ class JobExecutor implements Runnable {
 			} else if(status == UploadStatus.skipped){
 				log.debug("Downloadload Skipped: source file path " + job.getSourcePath());
 			}
+			progress.fileFinished(status);
 			stats.addUploadedItem(job, status);
 		}
 	}
@@ -142,29 +238,211 @@ class JobExecutor implements Runnable {
 		if(skipDownload(job)) {
 			return UploadStatus.skipped;
 		}
-		File file = job.data.destinationIntermediateFile;
-		
-		try ( ADLFileInputStream stream = client.getReadStream(job.getSourcePath());
-				RandomAccessFile fileStream = new RandomAccessFile(file, "rw")) {
-			stream.seek(job.offset);
-			fileStream.seek(job.offset);
-			byte[] data = new byte[bufSize];
-			long totalBytesRead = 0, bytesRead;
-			while(totalBytesRead < job.size && (bytesRead = stream.read(data)) != -1) {
-				int write = (int) Math.min(bytesRead, job.size - totalBytesRead);
-				totalBytesRead += write;
-				fileStream.write(data, 0, write);
+		if(!job.data.createLocalDirectory()) {
+			return UploadStatus.failed;
+		}
+		if(job.data.decompress) {
+			return decompressChunk(job);
+		}
+		return downloadChunk(job.data.sourceEntry, job.data.destinationIntermediateFile, job.offset, job.size);
+	}
+	
+	/*
+	 * Writes size bytes of the source at offset to the same offset of the local file. Also used by shard workers,
+	 * see ShardedTransfer.
+	 */
+	UploadStatus downloadChunk(DirectoryEntry source, File file, long offset, long size) {
+		// Double buffering: while one buffer is being written to the local file, the next range is read
+		// from the service into the other one. Without a second buffer to spare in the pool, the write is
+		// waited for before reading into the buffer again.
+		ByteBuffer[] buffers = new ByteBuffer[2];
+		try {
+			buffers[0] = readBuffers.take();
+			buffers[1] = readBuffers.tryTake();
+			try (AsynchronousFileChannel channel = openChunkFile(file.toPath())) {
+				if(channel == null) {
+					return UploadStatus.failed;
+				}
+				ADLFileInputStream stream = readStreams.get(source);
+				long position = offset, end = offset + size;
+				ByteBuffer pendingBuffer = null;
+				long pendingPosition = 0;
+				Future<Integer> pendingWrite = null;
+				int next = 0, length;
+				while(!cancelled() && (length = claim(position, end, buffers[next].capacity())) > 0) {
+					ByteBuffer buffer = buffers[next];
+					if(buffer == pendingBuffer) {
+						waitForWrite(channel, pendingWrite, pendingBuffer, pendingPosition);
+						pendingWrite = null;
+					}
+					readFully(stream, position, buffer.array(), length);
+					waitForWrite(channel, pendingWrite, pendingBuffer, pendingPosition);
+					buffer.clear();
+					buffer.limit(length);
+					pendingWrite = channel.write(buffer, position);
+					pendingBuffer = buffer;
+					pendingPosition = position;
+					position += length;
+					if(buffers[1 - next] != null) {
+						next = 1 - next;
+					}
+				}
+				waitForWrite(channel, pendingWrite, pendingBuffer, pendingPosition);
+				if(cancelled()) {
+					return UploadStatus.failed;
+				}
 			}
 		} catch (IOException e) {
+			readStreams.invalidate(source.fullName);
+			log.error(e.getMessage());
+			log.error("Error downloading file " + source.fullName);
+			return UploadStatus.failed;
+		} finally {
+			readBuffers.give(buffers[0]);
+			readBuffers.give(buffers[1]);
+		}
+		return UploadStatus.successful;
+	}
+	
+	/*
+	 * Opens the local file a download chunk is written to, creating it if needed, or returns null if the chunk is a
+	 * losing attempt. The winner opened the file before it finished, so if the file is missing once the loser is
+	 * cancelled, the winner has renamed it, and a file created by the loser would be left behind empty.
+	 */
+	private AsynchronousFileChannel openChunkFile(Path path) throws IOException {
+		try {
+			return AsynchronousFileChannel.open(path, StandardOpenOption.WRITE);
+		} catch (NoSuchFileException e) {
+			// first chunk of the file to start
+		}
+		if(cancelled()) {
+			return null;
+		}
+		AsynchronousFileChannel channel;
+		try {
+			channel = AsynchronousFileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+		} catch (FileAlreadyExistsException e) {
+			return AsynchronousFileChannel.open(path, StandardOpenOption.WRITE);
+		}
+		if(cancelled()) {
+			channel.close();
+			Files.deleteIfExists(path);
+			return null;
+		}
+		return channel;
+	}
+	
+	/*
+	 * Decompresses the gzip members of the chunk into a part file of their own; the parts are put together in
+	 * order once all chunks are done, as only then are the decompressed offsets known.
+	 */
+	private UploadStatus decompressChunk(Job job) {
+		File part = job.data.getDecompressedPartFile(job.id);
+		ByteBuffer buffer = null;
+		try (FileChannel out = FileChannel.open(part.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING)) {
+			buffer = readBuffers.take();
+			job.data.decodedMembers.put(job.id, gzipDecoder(job, buffer).decode(job.offset, out));
+		} catch (IOException e) {
+			readStreams.invalidate(job.getSourcePath());
 			log.error(e.getMessage());
 			log.error("Error downloading file " + job.getSourcePath());
+			return UploadStatus.failed;
+		} finally {
+			readBuffers.give(buffer);
 		}
 		return UploadStatus.successful;
 	}
 	
+	private GzipChunkDecoder gzipDecoder(Job job, ByteBuffer buffer) {
+		final ADLFileInputStream stream = readStreams.get(job.data.sourceEntry);
+		return new GzipChunkDecoder(new GzipChunkDecoder.Source() {
+			public int read(long position, byte[] b, int offset, int length) throws IOException {
+				return stream.read(position, b, offset, length);
+			}
+		}, job.getSourcePath(), job.data.sourceEntry.length, EnumerateFile.getChunkSize(), buffer.array());
+	}
+	
+	/*
+	 * Puts the members decoded into the part files of a decompressed download together in its intermediate file,
+	 * see GzipChunkDecoder.assemble, and removes the part files
+	 */
+	private boolean assembleDecompressedParts(Job job, boolean successful) {
+		boolean assembled = successful;
+		List<List<GzipChunkDecoder.Member>> members = new ArrayList<>();
+		List<File> parts = new ArrayList<>();
+		for(long chunk = 0; chunk < job.data.splits; chunk++) {
+			List<GzipChunkDecoder.Member> decoded = job.data.decodedMembers.get(chunk);
+			members.add(decoded != null ? decoded : new ArrayList<GzipChunkDecoder.Member>());
+			parts.add(job.data.getDecompressedPartFile(chunk));
+		}
+		if(assembled) {
+			ByteBuffer buffer = null;
+			try (FileChannel out = FileChannel.open(job.data.destinationIntermediateFile.toPath(),
+					StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+				buffer = readBuffers.take();
+				job.data.bytesWritten.set(gzipDecoder(job, buffer).assemble(members, parts, out));
+			} catch (IOException e) {
+				readStreams.invalidate(job.getSourcePath());
+				log.error("Error assembling decompressed file " + job.data.destinationIntermediatePath + ": " + e.getMessage());
+				assembled = false;
+			} finally {
+				readBuffers.give(buffer);
+			}
+		}
+		for(File part : parts) {
+			try {
+				Files.deleteIfExists(part.toPath());
+			} catch (IOException e) {
+				log.error("Error removing " + part + ": " + e.getMessage());
+			}
+		}
+		job.data.decodedMembers.clear();
+		return assembled;
+	}
+	
+	/*
+	 * Reads length bytes at position with back-to-back ranged reads on the open stream
+	 */
+	static void readFully(ADLFileInputStream stream, long position, byte[] data, int length) throws IOException {
+		int total = 0;
+		while(total < length) {
+			int read = stream.read(position + total, data, total, length - total);
+			if(read <= 0) {
+				throw new EOFException("Unexpected end of file " + stream.getFilename() + " at offset " + (position + total));
+			}
+			total += read;
+		}
+	}
+	
+	private static void waitForWrite(AsynchronousFileChannel channel, Future<Integer> write, ByteBuffer buffer, long position) throws IOException {
+		if(write == null) {
+			return;
+		}
+		try {
+			write.get();
+			while(buffer.hasRemaining()) {
+				channel.write(buffer, position + buffer.position()).get();
+			}
+		} catch (ExecutionException e) {
+			throw new IOException("Error writing to local file", e.getCause());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while writing to local file");
+		}
+	}
+	
 	
 	void uploadFile(Job job){
-		UploadStatus status = uploadFileInternal(job);
+		progress.chunkStarted(job.data);
+		stragglers.started(job);
+		UploadStatus status = job.remoteStatus != null ? job.remoteStatus
+				: job.type == JobType.FILECOPY ? copyFileInternal(job) : uploadFileInternal(job);
+		boolean decides = stragglers.finished(job, status, client);
+		progress.chunkFinished(status, decides ? job.size : 0);
+		if(!decides) {
+			return;
+		}
 		job.updateStatus(status);
 		stats.updateChunkStats(status, job.size);
 		if(job.isFinalUpload()) {
@@ -185,6 +463,7 @@ class JobExecutor implements Runnable {
 			} else if(status == UploadStatus.skipped){
 				log.debug("Upload Skipped: source file path " + job.getSourcePath());
 			}
+			progress.fileFinished(status);
 			stats.addUploadedItem(job, status);
 		}
 	}
@@ -213,21 +492,34 @@ class JobExecutor implements Runnable {
 		if(skipUpload(job)) {
 			return UploadStatus.skipped;
 		}
-		String filePath = job.getDestinationIntermediatePath();
+		if(job.data.compress) {
+			return uploadCompressedChunk(job);
+		}
+		return uploadChunk(job.getSourcePath(), job.getDestinationIntermediatePath(), job.offset, job.size);
+	}
+	
+	/*
+	 * Writes size bytes of the local file at offset to filePath, replacing it. Also used by shard workers,
+	 * see ShardedTransfer.
+	 */
+	UploadStatus uploadChunk(String sourcePath, String filePath, long offset, long size) {
 		try ( ADLFileOutputStream stream = client.createFile(filePath, IfExists.OVERWRITE);
-				FileInputStream srcData = new FileInputStream(job.getSourcePath());)
+				FileInputStream srcData = new FileInputStream(sourcePath);)
 		{
-			srcData.skip(job.offset);
+			srcData.skip(offset);
 			byte[] data = new byte[bufSize];
-	        long totalBytesRead = 0;
-	        long dataRead = 0;
-	        while(totalBytesRead < job.size && (dataRead = srcData.read(data)) != -1) {
-	        	int len = (int)Math.min(dataRead, job.size - totalBytesRead);
-	        	stream.write(data, 0, len);
-	        	totalBytesRead += len;
+	        long position = offset, end = offset + size;
+	        int length;
+	        while(!cancelled() && (length = claim(position, end, data.length)) > 0) {
+	        	int dataRead = srcData.read(data, 0, length);
+	        	if(dataRead == -1) {
+	        		log.error("Failed to upload: " + sourcePath);
+	        		return UploadStatus.failed;
+	        	}
+	        	stream.write(data, 0, dataRead);
+	        	position += dataRead;
 	        }
-	        if(totalBytesRead != job.size) {
-	           log.error("Failed to upload: " + job.data.getSourceFilePath());
+	        if(cancelled()) {
 	           return UploadStatus.failed;
 	        }
 		} catch (IOException e) {
@@ -238,6 +530,132 @@ class JobExecutor implements Runnable {
 	}
 	
 	
+	/*
+	 * Copies the chunk from the source account into a segment on the destination, through one in-memory buffer
+	 */
+	private UploadStatus copyFileInternal(Job job) {
+		if(skipUpload(job)) {
+			return UploadStatus.skipped;
+		}
+		String filePath = job.getDestinationIntermediatePath();
+		ByteBuffer buffer = null;
+		try (ADLFileOutputStream stream = client.createFile(filePath, IfExists.OVERWRITE)) {
+			ADLFileInputStream source = readStreams.get(job.data.sourceEntry);
+			buffer = readBuffers.take();
+			byte[] data = buffer.array();
+			long position = job.offset, end = job.offset + job.size;
+			int length;
+			while(!cancelled() && (length = claim(position, end, data.length)) > 0) {
+				readFully(source, position, data, length);
+				stream.write(data, 0, length);
+				position += length;
+			}
+			if(cancelled()) {
+				return UploadStatus.failed;
+			}
+		} catch (IOException e) {
+			readStreams.invalidate(job.getSourcePath());
+			log.error(e.getMessage());
+			log.error("Error copying file " + job.getSourcePath());
+			return UploadStatus.failed;
+		} finally {
+			readBuffers.give(buffer);
+		}
+		return UploadStatus.successful;
+	}
+	
+	/*
+	 * Uploads the chunk as a gzip member of its own; concatenating the chunks then yields a multi-member gzip file.
+	 * The first block read decides the level: if a sample of it does not compress well, the chunk is written
+	 * with stored (uncompressed) deflate blocks, which keeps the file valid gzip at almost no CPU cost.
+	 */
+	private UploadStatus uploadCompressedChunk(Job job) {
+		String filePath = job.getDestinationIntermediatePath();
+		ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		long cpuStart = threads.isCurrentThreadCpuTimeSupported() ? threads.getCurrentThreadCpuTime() : 0;
+		long totalBytesRead = 0;
+		boolean stored = false;
+		CountingOutputStream counter = null;
+		try ( ADLFileOutputStream stream = client.createFile(filePath, IfExists.OVERWRITE);
+				FileInputStream srcData = new FileInputStream(job.getSourcePath());)
+		{
+			srcData.getChannel().position(job.offset);
+			counter = new CountingOutputStream(stream);
+			byte[] data = new byte[bufSize];
+			GZIPOutputStream gzip = null;
+			int dataRead;
+			while(totalBytesRead < job.size
+					&& (dataRead = srcData.read(data, 0, (int) Math.min(data.length, job.size - totalBytesRead))) != -1) {
+				if(gzip == null) {
+					stored = !isCompressible(data, dataRead);
+					gzip = newGzipStream(counter, stored ? Deflater.NO_COMPRESSION : Deflater.DEFAULT_COMPRESSION);
+				}
+				gzip.write(data, 0, dataRead);
+				totalBytesRead += dataRead;
+			}
+			if(gzip == null) {
+				gzip = newGzipStream(counter, Deflater.DEFAULT_COMPRESSION);
+			}
+			gzip.close();
+			if(totalBytesRead != job.size) {
+				log.error("Failed to upload: " + job.data.getSourceFilePath());
+				return UploadStatus.failed;
+			}
+		} catch (IOException e) {
+			log.error(e.getMessage());
+			return UploadStatus.failed;
+		}
+		long cpuNanos = threads.isCurrentThreadCpuTimeSupported() ? threads.getCurrentThreadCpuTime() - cpuStart : 0;
+		job.data.bytesWritten.addAndGet(counter.count);
+		stats.updateCompressionStats(totalBytesRead, counter.count, cpuNanos, stored);
+		log.debug("Chunk " + job.id + " of " + job.getSourcePath() + ": " + totalBytesRead + " -> " + counter.count
+				+ " bytes" + (stored ? " (stored)" : "") + ", CPU " + cpuNanos / 1000000 + " ms");
+		return UploadStatus.successful;
+	}
+	
+	private static boolean isCompressible(byte[] data, int length) {
+		int sampleLength = Math.min(length, compressionSampleSize);
+		if(sampleLength == 0) {
+			return true;
+		}
+		Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+		try {
+			deflater.setInput(data, 0, sampleLength);
+			deflater.finish();
+			byte[] scratch = new byte[64 * 1024];
+			long compressed = 0;
+			while(!deflater.finished()) {
+				compressed += deflater.deflate(scratch);
+			}
+			return compressed < sampleLength * (1 - minCompressionGain);
+		} finally {
+			deflater.end();
+		}
+	}
+	
+	private GZIPOutputStream newGzipStream(OutputStream out, final int level) throws IOException {
+		return new GZIPOutputStream(out, bufSize) {
+			{
+				def.setLevel(level);
+			}
+		};
+	}
+	
+	private static class CountingOutputStream extends FilterOutputStream {
+		long count = 0;
+		CountingOutputStream(OutputStream out) {
+			super(out);
+		}
+		public void write(int b) throws IOException {
+			out.write(b);
+			count++;
+		}
+		public void write(byte[] b, int off, int len) throws IOException {
+			out.write(b, off, len);
+			count += len;
+		}
+	}
+	
 	boolean concatenate(Job job) {
 		if(!job.data.isSplitUpload()) return true;
 		boolean status = false;
@@ -272,8 +690,9 @@ class JobExecutor implements Runnable {
 	boolean verifyUpload(Job job) throws IOException {
 		String filePath = job.getDestinationFinalPath();
 		DirectoryEntry entry = client.getDirectoryEntry(filePath);
-		if(entry.length != job.data.sourceFile.length()) {
-			log.error(job.data.sourceFile.getAbsolutePath() + " final verification failed");
+		long expectedLength = job.data.compress ? job.data.bytesWritten.get() : job.data.size();
+		if(entry.length != expectedLength) {
+			log.error(job.getSourcePath() + " final verification failed");
 			return false;
 		}
 		log.debug(job.getSourcePath() + " verification successful");
@@ -281,7 +700,8 @@ class JobExecutor implements Runnable {
 	}
 	
 	boolean verifyDownload(Job job) {
-		return job.data.destinationFile.length() == job.data.sourceEntry.length;
+		long expectedLength = job.data.decompress ? job.data.bytesWritten.get() : job.data.sourceEntry.length;
+		return job.data.destinationFile.length() == expectedLength;
 	}
 	
 	void mkDir(Job job) {
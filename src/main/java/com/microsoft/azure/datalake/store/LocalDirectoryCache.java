@@ -0,0 +1,90 @@
+package com.microsoft.azure.datalake.store;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+
+/*
+ * Creates local directories for downloads, each at most once. Enumeration only queues the creation of the
+ * directories it finds, which a small pool of threads carries out in parallel; the executors wait for the
+ * directory of a file before writing it. Paths already handled are answered from memory, without touching
+ * the file system.
+ */
+class LocalDirectoryCache {
+	private static final Logger log = LoggerFactory.getLogger("com.microsoft.azure.datalake.store.FileUploader");
+	private static final int threadCount = 4;
+	private final ConcurrentHashMap<String, Future<Boolean>> directories = new ConcurrentHashMap<>();
+	private final ExecutorService pool = Executors.newFixedThreadPool(threadCount, new ThreadFactory() {
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, "adlstool-mkdir");
+			t.setDaemon(true);
+			return t;
+		}
+	});
+	
+	/*
+	 * Queues the creation of the directory and its parents, unless that was done before
+	 */
+	void createAsync(String path) {
+		path = new File(path).getPath();   // one key per directory, with or without a trailing separator
+		FutureTask<Boolean> task = newTask(path);
+		if(directories.putIfAbsent(path, task) == null) {
+			pool.execute(task);
+		}
+	}
+	
+	/*
+	 * Waits until the directory exists, creating it on this thread if nobody has asked for it yet.
+	 * Returns false if it could not be created.
+	 */
+	boolean awaitCreated(String path) {
+		path = new File(path).getPath();
+		Future<Boolean> created = directories.get(path);
+		if(created == null) {
+			FutureTask<Boolean> task = newTask(path);
+			created = directories.putIfAbsent(path, task);
+			if(created == null) {
+				task.run();
+				created = task;
+			}
+		}
+		try {
+			return created.get();
+		} catch (ExecutionException e) {
+			log.error("Failed to create local directory " + path + ": " + e.getCause());
+			return false;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		}
+	}
+	
+	/*
+	 * Forgets the directories handled so far, which may have been removed since; see DaemonMain
+	 */
+	void clear() {
+		directories.clear();
+	}
+	
+	private static FutureTask<Boolean> newTask(final String path) {
+		return new FutureTask<>(new Callable<Boolean>() {
+			public Boolean call() {
+				File dir = new File(path);
+				if(dir.mkdirs() || dir.isDirectory()) {
+					return true;
+				}
+				log.error("Failed to create local directory " + path);
+				return false;
+			}
+		});
+	}
+}
@@ -7,23 +7,49 @@ import org.slf4j.LoggerFactory;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
 import java.util.UUID;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
 
 class MetaData {
 	private static final char adlsFileSeparator = '/';
 	private static final char localFileSeparator = File.separatorChar;
 	private static final Logger log = LoggerFactory.getLogger("com.microsoft.azure.datalake.store.FileUploader");
+	static final LocalDirectoryCache localDirectories = new LocalDirectoryCache();
+	private static final AtomicLong nextSequence = new AtomicLong(0);
+	private static final String[] compressedExtensions = {".gz", ".tgz", ".zip", ".bz2", ".xz", ".7z", ".zst", ".lz4",
+			".snappy", ".parquet", ".orc", ".avro", ".jpg", ".jpeg", ".png", ".gif", ".mp3", ".mp4", ".mkv"};
+	static boolean compressUploads = false; // gzip each chunk of an upload, see JobExecutor.uploadCompressedChunk
+	static boolean decompressDownloads = false; // gunzip .gz files while downloading, see GzipChunkDecoder
+	// intermediates are named with these, so that cleanup (see OrphanCleanup) never takes a user file for one
+	static final String SEGMENTS_INFIX = ".adlstool-segments-";
+	static final String CONCAT_SUFFIX = ".adlstool-concat";
+	static final String DOWNLOAD_INFIX = ".adlstool-", DOWNLOAD_SUFFIX = ".tmp";
 	String destinationPath, destinationUuidName, destinationFinalPath;
-	String sourceFileName, sourceFilePath;
+	String sourceFileName, sourceFilePath, destinationFileName;
 	String destinationIntermediatePath = null;
 	File sourceFile, destinationIntermediateFile, destinationFile;
 	DirectoryEntry sourceEntry;
 	long splits;
 	AtomicLong doneCount = new AtomicLong(0);
+	AtomicBoolean started = new AtomicBoolean(false);
+	final long sequence = nextSequence.getAndIncrement(); // enumeration order, used to schedule files one after another
+	int depth = 0; // below the root of the transfer, set by the enumeration
+	boolean compress = false, decompress = false;
+	AtomicLong bytesWritten = new AtomicLong(0); // size of the uploaded file when compressed, downloaded when decompressed
+	Map<Long, List<GzipChunkDecoder.Member>> decodedMembers = Collections.synchronizedMap(new HashMap<Long, List<GzipChunkDecoder.Member>>()); // by chunk, when decompressed
 	UploadStatus status = UploadStatus.successful;
 	Boolean existsAtDestination = null;
+	long streamLength = 0; // of uploads from a stream, once it has ended
+	Set<String> hedgedSegments = Collections.synchronizedSet(new HashSet<String>()); // segments whose second attempt won
+	private final TreeMap<Long, Long> pieces = new TreeMap<>(); // offset to chunk id of the pieces split off chunks
 	
 	
 	// Constructor called by producer. Perform all the one time operations here.
@@ -34,8 +60,23 @@ class MetaData {
 		this.destinationUuidName = UUID.randomUUID().toString();
 		this.sourceFileName = sourceFile.getName();
 		this.sourceFilePath = sourceFile.getAbsolutePath();
+		this.compress = compressUploads && !isCompressedFormat(sourceFileName) && sourceFile.isFile();
+		this.destinationFileName = compress ? sourceFileName + ".gz" : sourceFileName;
 		setDestinationIntermediatePath(sourceFile.length());
-		this.destinationFinalPath = this.destinationPath + this.sourceFileName;
+		this.destinationFinalPath = this.destinationPath + this.destinationFileName;
+	}
+	
+	/*
+	 * Files that are compressed already are uploaded as they are
+	 */
+	private static boolean isCompressedFormat(String name) {
+		String lower = name.toLowerCase();
+		for(String extension : compressedExtensions) {
+			if(lower.endsWith(extension)) {
+				return true;
+			}
+		}
+		return false;
 	}
 	
 	MetaData(DirectoryEntry sourceFile, String destinationPath) {
@@ -45,10 +86,62 @@ class MetaData {
 		this.sourceFileName = sourceFile.name;
 		this.destinationUuidName = UUID.randomUUID().toString();
 		this.destinationPath = trimTrailingSlash(destinationPath, localFileSeparator) + localFileSeparator;
+		this.decompress = decompressDownloads && sourceFile.type == DirectoryEntryType.FILE
+				&& sourceFileName.toLowerCase().endsWith(".gz") && sourceFileName.length() > 3;
+		this.destinationFileName = decompress ? sourceFileName.substring(0, sourceFileName.length() - 3) : sourceFileName;
 		createDestinationIntermediatePath(sourceFile.length);
-		this.destinationFinalPath = this.destinationPath + this.sourceFileName;
+		this.destinationFinalPath = this.destinationPath + this.destinationFileName;
 		destinationIntermediateFile = new File(destinationIntermediatePath);
 		destinationFile = new File(destinationFinalPath);
+		if(sourceFile.type == DirectoryEntryType.DIRECTORY) {
+			// create the tree ahead of the downloads of its files
+			localDirectories.createAsync(destinationFinalPath);
+		}
+	}
+	
+	/*
+	 * For copies from ADLS to ADLS: source as in downloads, destination as in uploads
+	 */
+	MetaData(DirectoryEntry sourceFile, String destinationPath, boolean copy) {
+		this.sourceEntry = sourceFile;
+		this.sourceFilePath = sourceFile.fullName;
+		this.sourceFileName = sourceFile.name;
+		this.destinationFileName = sourceFile.name;
+		this.destinationUuidName = UUID.randomUUID().toString();
+		this.destinationPath = trimTrailingSlash(destinationPath, adlsFileSeparator) + adlsFileSeparator;
+		setDestinationIntermediatePath(sourceFile.length);
+		this.destinationFinalPath = this.destinationPath + this.destinationFileName;
+	}
+	
+	/*
+	 * For uploads from a stream of unknown length to the given file: the stream is always uploaded in segments,
+	 * StreamUploader sets splits and streamLength once it has ended
+	 */
+	MetaData(String destinationFilePath) {
+		int slash = destinationFilePath.lastIndexOf(adlsFileSeparator);
+		this.destinationPath = destinationFilePath.substring(0, slash + 1);
+		this.destinationFileName = destinationFilePath.substring(slash + 1);
+		this.sourceFileName = StreamUploader.STDIN;
+		this.sourceFilePath = StreamUploader.STDIN;
+		this.destinationUuidName = UUID.randomUUID().toString();
+		this.destinationIntermediatePath = getSegmentPrefix();
+		this.destinationFinalPath = destinationFilePath;
+	}
+	
+	/*
+	 * Gives the destination file another name than the source's, for manifest entries with a destination of their own
+	 */
+	void setDestinationFileName(String name) {
+		if(destinationIntermediateFile != null) {
+			// download
+			destinationFileName = name;
+			destinationFinalPath = destinationPath + destinationFileName;
+			destinationFile = new File(destinationFinalPath);
+		} else {
+			destinationFileName = compress ? name + ".gz" : name;
+			setDestinationIntermediatePath(size());
+			destinationFinalPath = destinationPath + destinationFileName;
+		}
 	}
 	
 	public String getSourceFilePath() {
@@ -60,28 +153,42 @@ class MetaData {
 	 */
 	private void setDestinationIntermediatePath(long length) {
 		splits = EnumerateFile.getNumberOfFileChunks(length);
-		String sourceFileName = sourceFile.getName();
 		if(splits == 1) {
-			destinationIntermediatePath = destinationPath + sourceFileName;
+			destinationIntermediatePath = destinationPath + destinationFileName;
 		} else {
-			destinationIntermediatePath = (destinationPath + sourceFileName + "-segments-" 
-		                                   + destinationUuidName + adlsFileSeparator + sourceFileName + "-");
+			destinationIntermediatePath = getSegmentPrefix();
 		}
 	}
 	
+	private String getSegmentPrefix() {
+		return destinationPath + destinationFileName + SEGMENTS_INFIX + destinationUuidName + adlsFileSeparator + destinationFileName + "-";
+	}
+	
+	/*
+	 * The local directory is not created here; see localDirectories and createLocalDirectory.
+	 */
 	private void createDestinationIntermediatePath(long length) {
 		splits = EnumerateFile.getNumberOfFileChunks(length);
-		String path = destinationPath;
-		File destinationPathFile;
-		destinationIntermediatePath = destinationPath + sourceFileName + "-" + destinationUuidName;
-		destinationPathFile = new File(path);
-		if(!destinationPathFile.exists()) {
-			destinationPathFile.mkdirs();
-		}
+		destinationIntermediatePath = destinationPath + sourceFileName + DOWNLOAD_INFIX + destinationUuidName + DOWNLOAD_SUFFIX;
+	}
+	
+	/*
+	 * Makes sure the local directory of a download exists. Called by the executors, once per chunk; only the
+	 * first call for a directory touches the file system.
+	 */
+	public boolean createLocalDirectory() {
+		return localDirectories.awaitCreated(destinationPath);
+	}
+	
+	/*
+	 * Local file holding the decompressed members that start in the given chunk
+	 */
+	public File getDecompressedPartFile(long chunk) {
+		return new File(destinationIntermediatePath + ".part" + chunk);
 	}
 	
 	public String getDestinationConcatIntermediatePath() {
-		return destinationPath + destinationUuidName;
+		return destinationPath + destinationUuidName + CONCAT_SUFFIX;
 	}
 	
 	public String getDestinationIntermediatePath() {
@@ -100,17 +207,45 @@ class MetaData {
 		List<String> list = new ArrayList<>();
 		String destination = getDestinationIntermediatePath();
 		for(long jobid = 0; jobid < splits; jobid++) {
-			list.add(destination + jobid);
+			addSegment(list, destination + jobid);
+			synchronized(this) {
+				for(Map.Entry<Long, Long> piece : pieces.entrySet()) {
+					if(piece.getValue() == jobid) {
+						addSegment(list, destination + jobid + "-" + piece.getKey());
+					}
+				}
+			}
 		}
 		return list;
 	}
 	
+	private void addSegment(List<String> list, String path) {
+		list.add(hedgedSegments.contains(path) ? path + StragglerTracker.HEDGE_SUFFIX : path);
+	}
+	
+	/*
+	 * Records a piece split off a running chunk; the file is done once its pieces are too
+	 */
+	public synchronized void addPiece(Job piece) {
+		pieces.put(piece.offset, piece.id);
+	}
+	
 	public long size() {
-		return sourceFile.length();
+		if(sourceFile == null && sourceEntry == null) {
+			return streamLength;
+		}
+		return sourceFile != null ? sourceFile.length() : sourceEntry.length;
+	}
+	
+	/*
+	 * Returns true for the first chunk of the file to start
+	 */
+	public boolean markStarted() {
+		return started.compareAndSet(false, true);
 	}
 	
-	public boolean isFinalUpload() {
-		return splits == doneCount.incrementAndGet();
+	public synchronized boolean isFinalUpload() {
+		return splits + pieces.size() == doneCount.incrementAndGet();
 	}
 	
 	private static String trimTrailingSlash(String inStr, char separator) {
@@ -0,0 +1,246 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ * See License.txt in the project root for license information.
+ *
+ */
+
+package com.microsoft.azure.datalake.store;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Finds and deletes what failed transfers leave behind, see {@link MetaData}:
+ * <UL>
+ * <LI>on ADLS, the {@code <name>.adlstool-segments-<uuid>} directories of split uploads and copies, and the
+ * {@code <uuid>.adlstool-concat} files their segments are concatenated into before the rename</LI>
+ * <LI>locally, the {@code <name>.adlstool-<uuid>.tmp} files downloads are written to before the rename, and their
+ * {@code .part<n>} files when decompressing</LI>
+ * </UL>
+ * Segments directories of earlier versions, {@code <name>-segments-<uuid>}, are also matched. A segments directory
+ * is only deleted if all it holds are segments of its file, {@code <name>-<n>}; earlier versions named the other
+ * intermediates in ways a user file can be named too, and those are left alone.
+ * <P>
+ * Only artifacts last modified before the cutoff are touched, which keeps the ones of running transfers. For a
+ * segments directory that is the newest of the directory and the segments in it. Artifacts must also pass the
+ * traversal filter.
+ * <P>
+ * The ADLS tree is walked with a {@link ParallelTreeWalker}, and the artifacts found are deleted in parallel once
+ * the walk is done, when the size of each segments directory is known. The local tree is walked by as many threads,
+ * which delete the files as they find them. Symbolic links are not followed.
+ */
+class OrphanCleanup {
+    private static final Logger log = LoggerFactory.getLogger("com.microsoft.azure.datalake.store.OrphanCleanup");
+    private static final String UUID = "[0-9a-f]{8}-[0-9a-f]{4}-[0-9a-f]{4}-[0-9a-f]{4}-[0-9a-f]{12}";
+    private static final Pattern SEGMENTS_DIRECTORY = Pattern.compile("(.+)(?:" + Pattern.quote(MetaData.SEGMENTS_INFIX)
+            + "|-segments-)" + UUID);
+    private static final Pattern CONCAT_INTERMEDIATE = Pattern.compile(UUID + Pattern.quote(MetaData.CONCAT_SUFFIX));
+    private static final Pattern DOWNLOAD_INTERMEDIATE = Pattern.compile(".+" + Pattern.quote(MetaData.DOWNLOAD_INFIX) + UUID
+            + Pattern.quote(MetaData.DOWNLOAD_SUFFIX) + "(\\.part\\d+)?");
+
+    static class Totals {
+        final AtomicLong found = new AtomicLong(0);
+        final AtomicLong bytesFound = new AtomicLong(0);
+        final AtomicLong deleted = new AtomicLong(0);
+        final AtomicLong bytesDeleted = new AtomicLong(0);
+        final AtomicLong failed = new AtomicLong(0);
+    }
+
+    private static class Artifact {
+        final String path;
+        final boolean directory;
+        final AtomicLong bytes = new AtomicLong(0);
+        final AtomicLong lastModified;
+        final Pattern segment;          // names of the entries a segments directory may hold
+        volatile boolean foreign = false;   // it holds something else
+
+        Artifact(DirectoryEntry de, Pattern segment) {
+            this.path = de.fullName;
+            this.directory = de.type == DirectoryEntryType.DIRECTORY;
+            this.lastModified = new AtomicLong(de.lastModifiedTime.getTime());
+            this.segment = segment;
+            if (!directory) bytes.set(de.length);
+        }
+
+        void add(DirectoryEntry de) {
+            if (de.type == DirectoryEntryType.FILE) bytes.addAndGet(de.length);
+            if (de.type != DirectoryEntryType.FILE || !segment.matcher(de.name).matches()) foreign = true;
+            long time = de.lastModifiedTime.getTime(), newest;
+            while (time > (newest = lastModified.get()) && !lastModified.compareAndSet(newest, time));
+        }
+    }
+
+    final Totals remote = new Totals();
+    final Totals local = new Totals();
+    private final long cutoff;
+    private final boolean dryRun;
+    private final int threadCount = AdlsTool.threadSetup();
+    private final ConcurrentLinkedQueue<Artifact> artifacts = new ConcurrentLinkedQueue<>();
+    private final List<String> failures = new ArrayList<>();
+
+    /*
+     * @param cutoff artifacts last modified at or after this time, in epoch millis, are left alone
+     * @param dryRun only report what would be deleted
+     */
+    OrphanCleanup(long cutoff, boolean dryRun) {
+        this.cutoff = cutoff;
+        this.dryRun = dryRun;
+    }
+
+    synchronized List<String> getFailures() {
+        return new ArrayList<>(failures);
+    }
+
+    private synchronized void failed(Totals totals, String path, String message) {
+        log.error("Failed to delete " + path + ": " + message);
+        totals.failed.incrementAndGet();
+        failures.add(path);
+    }
+
+    /*
+     * Walks the tree at path on ADLS, then deletes the artifacts older than the cutoff
+     */
+    void cleanRemote(ADLStoreClient client, String path, final EntryFilter filter) throws IOException {
+        final DirectoryEntry root = client.getDirectoryEntry(path);
+        ParallelTreeWalker<Artifact> walker = new ParallelTreeWalker<>(client, new ParallelTreeWalker.Visitor<Artifact>() {
+            public Artifact visitDirectory(DirectoryEntry de, int depth, Artifact inherited) {
+                if (inherited != null) {
+                    inherited.add(de);
+                    return inherited;
+                }
+                Matcher m = SEGMENTS_DIRECTORY.matcher(de.name);
+                if (!m.matches() || !filter.shouldProcess(de, EntryFilter.relativePath(root.fullName, de.fullName), depth)) {
+                    return null;
+                }
+                // segments are named <name>-<chunk>, with -<offset> for pieces and the suffix of hedged attempts
+                Artifact segments = new Artifact(de, Pattern.compile(Pattern.quote(m.group(1)) + "-\\d+(-\\d+)?("
+                        + Pattern.quote(StragglerTracker.HEDGE_SUFFIX) + ")?"));
+                artifacts.add(segments);
+                return segments;
+            }
+
+            public boolean shouldDescend(DirectoryEntry de, int depth, Artifact state) {
+                return state != null
+                        || filter.shouldDescend(de.fullName, EntryFilter.relativePath(root.fullName, de.fullName), de.name, depth);
+            }
+
+            public void visitFile(DirectoryEntry de, int depth, Artifact inherited) {
+                if (inherited != null) {
+                    inherited.add(de);
+                } else if (CONCAT_INTERMEDIATE.matcher(de.name).matches()
+                        && filter.shouldProcess(de, EntryFilter.relativePath(root.fullName, de.fullName), depth)) {
+                    artifacts.add(new Artifact(de, null));
+                }
+            }
+        }, threadCount);
+        walker.walk(root, 0, null);
+        walker.run();
+
+        ParallelTreeWalker<Void> deleter = new ParallelTreeWalker<>(client, null, threadCount);
+        for (final Artifact artifact : artifacts) {
+            if (artifact.lastModified.get() >= cutoff) continue;
+            if (artifact.foreign) {
+                log.info("Not deleting " + artifact.path + ", which holds entries that are not segments");
+                continue;
+            }
+            remote.found.incrementAndGet();
+            remote.bytesFound.addAndGet(artifact.bytes.get());
+            if (dryRun) {
+                System.out.println(String.format("%20d bytes  %s%s", artifact.bytes.get(), artifact.path, artifact.directory ? "/" : ""));
+                continue;
+            }
+            final ADLStoreClient deleteClient = client;
+            deleter.submit(new ParallelTreeWalker.Task() {
+                public void run() {
+                    deleteRemote(deleteClient, artifact);
+                }
+            });
+        }
+        deleter.run();
+    }
+
+    private void deleteRemote(ADLStoreClient client, Artifact artifact) {
+        try {
+            boolean deleted = artifact.directory ? client.deleteRecursive(artifact.path) : client.delete(artifact.path);
+            if (!deleted) {
+                failed(remote, artifact.path, "not deleted");
+                return;
+            }
+        } catch (IOException ex) {
+            failed(remote, artifact.path, ex.getMessage());
+            return;
+        }
+        remote.deleted.incrementAndGet();
+        remote.bytesDeleted.addAndGet(artifact.bytes.get());
+    }
+
+    /*
+     * Walks the local tree at path, deleting the download intermediates older than the cutoff
+     */
+    void cleanLocal(File path, final EntryFilter filter) throws InterruptedException {
+        final String rootPath = path.getAbsolutePath().replace(File.separatorChar, '/');
+        final ProcessingQueue<File> directories = new ProcessingQueue<>();
+        directories.add(path);
+        Thread[] threads = new Thread[threadCount];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread(new Runnable() {
+                public void run() {
+                    File directory;
+                    while ((directory = directories.poll()) != null) {
+                        try {
+                            cleanLocalDirectory(directory, directories, rootPath, filter);
+                        } finally {
+                            directories.unregister();
+                        }
+                    }
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+    }
+
+    private void cleanLocalDirectory(File directory, ProcessingQueue<File> directories, String rootPath, EntryFilter filter) {
+        File[] children = directory.listFiles();
+        if (children == null) {
+            log.error("Unable to list local directory " + directory);
+            return;
+        }
+        for (File child : children) {
+            if (Files.isSymbolicLink(child.toPath())) continue;
+            String absolutePath = child.getAbsolutePath().replace(File.separatorChar, '/');
+            String relativePath = EntryFilter.relativePath(rootPath, absolutePath);
+            int depth = relativePath.split("/").length;
+            if (Files.isDirectory(child.toPath(), LinkOption.NOFOLLOW_LINKS)) {
+                if (filter.shouldDescend(absolutePath, relativePath, child.getName(), depth)) directories.add(child);
+            } else if (DOWNLOAD_INTERMEDIATE.matcher(child.getName()).matches() && child.lastModified() < cutoff
+                    && filter.shouldProcess(child, absolutePath, relativePath, depth)) {
+                long length = child.length();
+                local.found.incrementAndGet();
+                local.bytesFound.addAndGet(length);
+                if (dryRun) {
+                    System.out.println(String.format("%20d bytes  %s", length, child.getPath()));
+                } else if (child.delete()) {
+                    local.deleted.incrementAndGet();
+                    local.bytesDeleted.addAndGet(length);
+                } else {
+                    failed(local, child.getPath(), "not deleted");
+                }
+            }
+        }
+    }
+}
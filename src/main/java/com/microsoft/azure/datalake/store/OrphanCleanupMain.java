@@ -0,0 +1,85 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ * See License.txt in the project root for license information.
+ *
+ */
+
+package com.microsoft.azure.datalake.store;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Main method for the cleanup operation:
+ *   cleanup <credfile> <path> [local=<localPath>] [dryrun]
+ */
+class OrphanCleanupMain {
+
+    public static void main(RequestedOperation op, ADLStoreClient client, String[] args) {
+        if (args.length < 3 || args.length > 5) {
+            System.out.println("Illegal number of command-line parameters: " + args.length);
+            AdlsTool.usage(1000);
+        }
+        File localPath = null;
+        boolean dryRun = false;
+        for (int i = 3; i < args.length; i++) {
+            String arg = args[i].trim();
+            if (arg.equals("dryrun")) {
+                dryRun = true;
+            } else if (arg.startsWith("local=") && arg.length() > "local=".length()) {
+                localPath = new File(arg.substring("local=".length()));
+                if (!localPath.isDirectory()) {
+                    System.out.println("Local path is not a directory: " + localPath);
+                    AdlsTool.usage(1201);
+                }
+            } else {
+                System.out.println("Illegal optional parameter: " + arg);
+                AdlsTool.usage(1201);
+            }
+        }
+        String olderThan = System.getProperty("adlstool.cleanup.olderthan", "24h");
+        long cutoff = 0;
+        try {
+            cutoff = EntryFilter.parseTime(olderThan).getTime();
+        } catch (IllegalArgumentException ex) {
+            System.out.println("Illegal value in system property adlstool.cleanup.olderthan : " + olderThan);
+            AdlsTool.exit(1008);
+        }
+
+        OrphanCleanup cleanup = new OrphanCleanup(cutoff, dryRun);
+        long start = System.currentTimeMillis();
+        try {
+            EntryFilter filter = AdlsTool.getEntryFilter();
+            cleanup.cleanRemote(client, args[2], filter);
+            if (localPath != null) cleanup.cleanLocal(localPath, filter);
+        } catch (IOException ex) {
+            System.out.println("Error cleaning up " + args[2]);
+            ex.printStackTrace();
+            AdlsTool.exit(5001);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            AdlsTool.exit(5001);
+        }
+        long stop = System.currentTimeMillis();
+
+        System.out.println();
+        System.out.println(cleanup.getFailures().isEmpty() ? "COMPLETE" : "CLEANUP FAILED FOR FEW ENTRIES");
+        print("ADLS", cleanup.remote, dryRun);
+        if (localPath != null) print("Local", cleanup.local, dryRun);
+        if (!cleanup.getFailures().isEmpty()) {
+            System.out.println("Failed deletes:");
+            for (String path : cleanup.getFailures()) {
+                System.out.println('\t' + path);
+            }
+        }
+        System.out.println("Time taken: " + AdlsTool.timeString(stop - start));
+    }
+
+    private static void print(String side, OrphanCleanup.Totals totals, boolean dryRun) {
+        System.out.println(side + " orphaned entries found: " + totals.found.get() + ", " + totals.bytesFound.get() + " bytes");
+        if (!dryRun) {
+            System.out.println(side + " entries deleted: " + totals.deleted.get() + ", bytes reclaimed: " + totals.bytesDeleted.get());
+        }
+    }
+}
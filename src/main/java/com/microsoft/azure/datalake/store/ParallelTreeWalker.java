@@ -0,0 +1,267 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ * See License.txt in the project root for license information.
+ *
+ */
+
+package com.microsoft.azure.datalake.store;
+
+import com.microsoft.azure.datalake.store.retrypolicies.ExponentialBackoffPolicy;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Walks an ADLS directory tree with many threads, calling a {@link Visitor} for every entry found. Directories are
+ * listed in pages; the next page of a directory is queued before the entries of the current one are visited, so
+ * large directories keep a listing call in flight. Visitors can queue further work on the same threads with
+ * {@link #submit(Task)}.
+ * <P>
+ * Each directory carries a state of type {@code S}, computed by the visitor from the state of its parent, which
+ * lets visitors thread information (such as an inherited rule or a running total) down the tree.
+ * <P>
+ * Entries deleted while the walk is running are skipped. The first other error stops the walk and is thrown by
+ * {@link #run()}.
+ */
+class ParallelTreeWalker<S> {
+
+    interface Visitor<S> {
+        /*
+         * Called once for each directory reached, including the root. Returns the state its children will see.
+         */
+        S visitDirectory(DirectoryEntry de, int depth, S inherited) throws IOException;
+
+        /*
+         * Whether the directory should be listed, given the state visitDirectory returned for it
+         */
+        boolean shouldDescend(DirectoryEntry de, int depth, S state);
+
+        /*
+         * Called once for each file reached
+         */
+        void visitFile(DirectoryEntry de, int depth, S inherited) throws IOException;
+    }
+
+    interface Task {
+        void run() throws IOException;
+    }
+
+    // Payloads are processed in the order of this enum: next pages first, then queued tasks, then new directories.
+    // Finishing work before starting new listings keeps the queue short on wide trees. Next pages only go first
+    // while few tasks wait; otherwise a large flat directory would be listed far faster than its entries are
+    // worked off, and the queue would grow without bound.
+    private enum PayloadType {
+        ENUMERATE_NEXT_PAGE,
+        TASK,
+        ENUMERATE_DEFERRED_PAGE,
+        LIST_DIRECTORY,
+    }
+
+    private class Payload implements Comparable<Payload> {
+        final PayloadType type;
+        DirectoryEntry de;
+        String continuation;
+        int depth;
+        S state;
+        Task task;
+
+        Payload(PayloadType type, DirectoryEntry de, String continuation, int depth, S state) {
+            this.type = type;
+            this.de = de;
+            this.continuation = continuation;
+            this.depth = depth;
+            this.state = state;
+        }
+
+        Payload(Task task) {
+            this.type = PayloadType.TASK;
+            this.task = task;
+        }
+
+        @Override
+        public int compareTo(Payload that) {
+            return this.type.ordinal() - that.type.ordinal();
+        }
+    }
+
+    private static final int ENUMERATION_PAGESIZE = 16000;
+    private static final int MIN_ENUMERATION_PAGESIZE = 1000;
+    private static final int MAX_ENUMERATION_PAGESIZE = 64000;
+    private static final long FAST_PAGE_MILLIS = 1000;   // full pages faster than this grow the page size
+    private static final long SLOW_PAGE_MILLIS = 5000;   // pages slower than this shrink the page size
+
+    private final ProcessingPriorityQueue<Payload> queue = new ProcessingPriorityQueue<>();
+    private final ADLStoreClient client;
+    private final Visitor<S> visitor;
+    private final int threadCount;
+    private final AtomicInteger enumerationPageSize = new AtomicInteger(ENUMERATION_PAGESIZE);
+    private final AtomicInteger opCountForProgressBar = new AtomicInteger(0);
+    private final AtomicLong queuedTasks = new AtomicLong(0);
+    private volatile IOException error = null;
+
+    /*
+     * @param visitor called for the entries found; may be null if only tasks are submitted
+     */
+    ParallelTreeWalker(ADLStoreClient client, Visitor<S> visitor, int threadCount) {
+        this.client = client;
+        this.visitor = visitor;
+        this.threadCount = threadCount;
+    }
+
+    /*
+     * Visits the root, on the calling thread, and queues its listing. Call run() to do the walk.
+     *
+     * @param depth depth of the root; the children are at depth + 1
+     * @param inherited the state the root inherits
+     */
+    void walk(DirectoryEntry root, int depth, S inherited) throws IOException {
+        visit(root, depth, inherited);
+    }
+
+    void submit(Task task) {
+        queuedTasks.incrementAndGet();
+        queue.add(new Payload(task));
+    }
+
+    /*
+     * Submits a task, blocking while more than maxQueued payloads wait in the queue. For producers that generate
+     * work faster than it is done, e.g. from a file.
+     */
+    void submit(Task task, int maxQueued) {
+        queuedTasks.incrementAndGet();
+        queue.put(new Payload(task), maxQueued);
+    }
+
+    boolean hasFailed() {
+        return error != null;
+    }
+
+    /*
+     * Runs the walk and all submitted tasks to completion
+     */
+    void run() throws IOException {
+        Thread[] threads = new Thread[threadCount];
+        for (int i = 0; i < threadCount; i++) {
+            threads[i] = new Thread(new ThreadProcessor());
+            threads[i].start();
+        }
+        for (Thread t : threads) {
+            try {
+                t.join();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (error != null) throw error;
+    }
+
+    private class ThreadProcessor implements Runnable {
+        public void run() {
+            Payload payload;
+            while ((payload = queue.poll()) != null) {
+                if (payload.type == PayloadType.TASK) queuedTasks.decrementAndGet();
+                try {
+                    if (error != null) continue;   // a failed walk only drains the queue
+                    if (payload.type == PayloadType.TASK) {
+                        payload.task.run();
+                    } else {
+                        processDirectoryPage(payload.de, payload.continuation, payload.depth, payload.state);
+                    }
+                } catch (ADLException ex) {
+                    if (ex.httpResponseCode != 404) {
+                        // a 404 means the entry got deleted after we enumerated it; anything else stops the walk
+                        fail(ex);
+                    }
+                } catch (IOException ex) {
+                    fail(ex);
+                } catch (RuntimeException ex) {
+                    fail(new IOException(ex));
+                } finally {
+                    queue.unregister();
+                    if (opCountForProgressBar.incrementAndGet() % 1000 == 0) System.out.print('.');
+                }
+            }
+        }
+    }
+
+    private synchronized void fail(IOException ex) {
+        if (error == null) error = ex;
+    }
+
+    private void visit(DirectoryEntry de, int depth, S inherited) throws IOException {
+        if (de.type == DirectoryEntryType.FILE) {
+            visitor.visitFile(de, depth, inherited);
+        } else {
+            S state = visitor.visitDirectory(de, depth, inherited);
+            if (visitor.shouldDescend(de, depth, state))
+                queue.add(new Payload(PayloadType.LIST_DIRECTORY, de, "", depth, state));
+        }
+    }
+
+    private void processDirectoryPage(DirectoryEntry directoryEntry, String continuationToken, int depth, S state) throws IOException {
+        int pageSize = enumerationPageSize.get();
+        long start = System.currentTimeMillis();
+        DirectoryEntryListWithContinuationToken dirEntContToken = enumerateDirectoryInternal(client, directoryEntry.fullName,
+                pageSize, continuationToken, null, null);
+        List<DirectoryEntry> entries = dirEntContToken.getEntries();
+        adjustPageSize(pageSize, entries == null ? 0 : entries.size(), System.currentTimeMillis() - start);
+        if (entries == null || entries.isEmpty())
+            return;
+
+        // Queue the next page before dispatching this one, so an idle thread fetches it while this thread is still
+        // visiting the children of the current page. With more than a page per thread of tasks waiting, it waits
+        // for them instead.
+        continuationToken = dirEntContToken.getContinuationToken();
+        if (continuationToken != null && !continuationToken.isEmpty()) {
+            PayloadType type = queuedTasks.get() < (long) threadCount * pageSize
+                    ? PayloadType.ENUMERATE_NEXT_PAGE : PayloadType.ENUMERATE_DEFERRED_PAGE;
+            queue.add(new Payload(type, directoryEntry, continuationToken, depth, state));
+        }
+
+        for (DirectoryEntry de : entries) {
+            visit(de, depth + 1, state);
+        }
+    }
+
+    /*
+     * Adapt the page size to the observed listing latency: full pages that come back quickly double the page size,
+     * slow pages halve it. Concurrent listings may race here; the compareAndSet keeps only one adjustment per step.
+     */
+    private void adjustPageSize(int requested, int returned, long elapsedMillis) {
+        if (elapsedMillis > SLOW_PAGE_MILLIS) {
+            enumerationPageSize.compareAndSet(requested, Math.max(MIN_ENUMERATION_PAGESIZE, requested / 2));
+        } else if (elapsedMillis < FAST_PAGE_MILLIS && returned >= requested) {
+            enumerationPageSize.compareAndSet(requested, Math.min(MAX_ENUMERATION_PAGESIZE, requested * 2));
+        }
+    }
+
+    /*
+     * Lists one page of the directory at path, the entries after startAfter; the continuation token of the result
+     * is empty after the last page. For callers that list outside of a walk.
+     */
+    static DirectoryEntryListWithContinuationToken listPage(ADLStoreClient client, String path, String startAfter)
+            throws IOException {
+        return enumerateDirectoryInternal(client, path, ENUMERATION_PAGESIZE, startAfter, null, null);
+    }
+
+    private static DirectoryEntryListWithContinuationToken enumerateDirectoryInternal(ADLStoreClient client,
+                                                            String path,
+                                                            int maxEntriesToRetrieve,
+                                                            String startAfter,
+                                                            String endBefore,
+                                                            UserGroupRepresentation oidOrUpn)
+            throws IOException {
+        RequestOptions opts = new RequestOptions();
+        opts.retryPolicy = new ExponentialBackoffPolicy();
+        opts.timeout = 2 * client.timeout;
+        OperationResponse resp = new OperationResponse();
+        DirectoryEntryListWithContinuationToken dirEnt  = Core.listStatusWithToken(path, startAfter, endBefore, maxEntriesToRetrieve, oidOrUpn, client, opts, resp);
+        if (!resp.successful) {
+            throw client.getExceptionFromResponse(resp, "Error enumerating directory " + path);
+        }
+        return dirEnt;
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ * See License.txt in the project root for license information.
+ *
+ */
+
+package com.microsoft.azure.datalake.store;
+
+import java.util.regex.Pattern;
+
+/**
+ * A glob pattern matched against paths found during a traversal. Paths always use '/' as the separator.
+ *
+ * <ul>
+ *   <li>A pattern starting with '/' is matched against the absolute path of the entry</li>
+ *   <li>A pattern containing '/' elsewhere is matched against the path relative to the root of the traversal</li>
+ *   <li>A pattern without '/' is matched against the name of the entry alone, at any depth</li>
+ * </ul>
+ * Supported wildcards are {@code *} (anything except '/'), {@code **} (anything, including '/'),
+ * {@code ?} (one character except '/'), {@code [abc]} character classes and {@code {a,b}} alternatives.
+ */
+class PathPattern {
+    private enum Kind { ABSOLUTE, RELATIVE, NAME }
+
+    private final String glob;
+    private final Kind kind;
+    private final Pattern regex;
+    private final int literalLength;
+
+    PathPattern(String glob) {
+        if (glob == null || glob.trim().isEmpty()) throw new IllegalArgumentException("empty path pattern");
+        String g = glob.trim();
+        while (g.length() > 1 && g.endsWith("/")) g = g.substring(0, g.length() - 1);
+        if (g.startsWith("./")) g = g.substring(2);
+        this.glob = g;
+        if (g.startsWith("/")) {
+            kind = Kind.ABSOLUTE;
+        } else if (g.indexOf('/') >= 0) {
+            kind = Kind.RELATIVE;
+        } else {
+            kind = Kind.NAME;
+        }
+        int literals = 0;
+        for (int i = 0; i < g.length(); i++) {
+            if ("*?[]{},".indexOf(g.charAt(i)) < 0) literals++;
+        }
+        this.literalLength = literals;
+        this.regex = Pattern.compile(toRegex(g));
+    }
+
+    /**
+     * @param absolutePath absolute path of the entry, '/'-separated
+     * @param relativePath path of the entry relative to the traversal root, without a leading '/'
+     * @param name the last component of the path
+     * @return true if the pattern matches the entry
+     */
+    boolean matches(String absolutePath, String relativePath, String name) {
+        switch (kind) {
+            case ABSOLUTE: return regex.matcher(absolutePath).matches();
+            case RELATIVE: return regex.matcher(relativePath).matches();
+            default:       return regex.matcher(name).matches();
+        }
+    }
+
+    /*
+     * Rough measure of how specific the pattern is; anchored patterns rank above name-only ones, then the number of
+     * literal characters decides.
+     */
+    int specificity() {
+        return (kind == Kind.NAME ? 0 : 1 << 20) + literalLength;
+    }
+
+    @Override
+    public String toString() {
+        return glob;
+    }
+
+    private static String toRegex(String glob) {
+        StringBuilder sb = new StringBuilder();
+        int braces = 0;
+        boolean inClass = false;
+        for (int i = 0; i < glob.length(); i++) {
+            char c = glob.charAt(i);
+            if (inClass) {
+                if (c == ']') inClass = false;
+                if (c == '\\') sb.append('\\');
+                sb.append(c);
+                continue;
+            }
+            switch (c) {
+                case '*':
+                    if (i + 1 < glob.length() && glob.charAt(i + 1) == '*') {
+                        i++;
+                        if (i + 1 < glob.length() && glob.charAt(i + 1) == '/') {
+                            i++;
+                            sb.append("(?:.*/)?");   // "**/" also matches zero directories
+                        } else {
+                            sb.append(".*");
+                        }
+                    } else {
+                        sb.append("[^/]*");
+                    }
+                    break;
+                case '?':
+                    sb.append("[^/]");
+                    break;
+                case '[':
+                    inClass = true;
+                    sb.append('[');
+                    if (i + 1 < glob.length() && glob.charAt(i + 1) == '!') {
+                        sb.append('^');
+                        i++;
+                    }
+                    break;
+                case '{':
+                    braces++;
+                    sb.append("(?:");
+                    break;
+                case '}':
+                    if (braces > 0) {
+                        braces--;
+                        sb.append(')');
+                    } else {
+                        sb.append("\\}");
+                    }
+                    break;
+                case ',':
+                    sb.append(braces > 0 ? "|" : ",");
+                    break;
+                default:
+                    if ("\\.^$+()|".indexOf(c) >= 0) sb.append('\\');
+                    sb.append(c);
+            }
+        }
+        if (inClass || braces > 0) throw new IllegalArgumentException("Unterminated [ or { in path pattern " + glob);
+        return sb.toString();
+    }
+}
@@ -50,6 +50,7 @@ import java.util.Queue;
 class ProcessingPriorityQueue<T> {
     private Queue<T> internalQueue = new PriorityQueue<>();
     private int processorCount = 0;
+    private int waitingProducers = 0;
 
     public synchronized void add(T item) {
         if (item == null) throw new IllegalArgumentException("Cannot put null into queue");
@@ -57,12 +58,30 @@ class ProcessingPriorityQueue<T> {
         this.notifyAll();
     }
 
+    /*
+     * Like add(), but blocks while maxQueued or more items are waiting in the queue. Only a thread that is itself
+     * processing an item may call this, so the queue cannot be seen as done while it waits.
+     */
+    public synchronized void put(T item, int maxQueued) {
+        try {
+            waitingProducers++;
+            while (internalQueue.size() >= maxQueued)
+                this.wait();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } finally {
+            waitingProducers--;
+        }
+        add(item);
+    }
+
     public synchronized T poll() {
         try {
             while (isQueueEmpty() && !done())
                 this.wait();
             if (!isQueueEmpty()) {
                 processorCount++;  // current thread is now processing the item we pop
+                if (waitingProducers > 0) this.notifyAll();
                 return internalQueue.poll();
             }
             if (done()) {
@@ -42,6 +42,10 @@ class ProcessingQueue<T> {
         if (done()) this.notifyAll();
     }
 
+    public synchronized int size() {
+        return internalQueue.size();
+    }
+
     public boolean done() {
         return (processorCount == 0 && isQueueEmpty());
     }
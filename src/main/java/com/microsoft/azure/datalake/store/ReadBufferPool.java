@@ -0,0 +1,71 @@
+package com.microsoft.azure.datalake.store;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+
+/*
+ * The read buffers of downloads and copies, shared by all executors of the process. Their number is capped so they
+ * take at most a quarter of the heap: with the default of ten threads per core, two buffers per executor would
+ * otherwise take gigabytes on large machines. A chunk takes its buffers when it starts and gives them back when it
+ * is done, so idle executors hold none.
+ */
+class ReadBufferPool {
+	private static ReadBufferPool shared;
+	private final int bufferSize;
+	private final Semaphore available;
+	private final ConcurrentLinkedQueue<ByteBuffer> free = new ConcurrentLinkedQueue<>();
+
+	private ReadBufferPool(int bufferSize, int maxBuffers) {
+		this.bufferSize = bufferSize;
+		this.available = new Semaphore(maxBuffers);
+	}
+
+	/*
+	 * The pool for buffers of JobExecutor.getReadBufferSize(); a new one if the size changed, as between the jobs
+	 * of a daemon
+	 */
+	static synchronized ReadBufferPool get() {
+		int size = JobExecutor.getReadBufferSize();
+		if(shared == null || shared.bufferSize != size) {
+			shared = new ReadBufferPool(size, (int) Math.max(1, Math.min(Integer.MAX_VALUE, Runtime.getRuntime().maxMemory() / 4 / size)));
+		}
+		return shared;
+	}
+
+	/*
+	 * Takes a buffer, waiting for one to be given back if all are in use. Callers must not hold a buffer when
+	 * calling this, so that waiting cannot deadlock.
+	 */
+	ByteBuffer take() throws IOException {
+		try {
+			available.acquire();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while waiting for a read buffer");
+		}
+		return next();
+	}
+
+	/*
+	 * Takes a buffer if one is available right away, otherwise returns null
+	 */
+	ByteBuffer tryTake() {
+		return available.tryAcquire() ? next() : null;
+	}
+
+	void give(ByteBuffer buffer) {
+		if(buffer == null) {
+			return;
+		}
+		buffer.clear();
+		free.add(buffer);
+		available.release();
+	}
+
+	private ByteBuffer next() {
+		ByteBuffer buffer = free.poll();
+		return buffer != null ? buffer : ByteBuffer.allocate(bufferSize);
+	}
+}
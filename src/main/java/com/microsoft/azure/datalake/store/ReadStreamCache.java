@@ -0,0 +1,74 @@
+package com.microsoft.azure.datalake.store;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/*
+ * Keeps the read streams of the files an executor downloads from open across chunks, so consecutive chunks
+ * of a file reuse one stream object instead of creating a new one each. Chunks are read with positional reads,
+ * which bypass the stream's own buffer, so this saves no I/O; the read buffers are in ReadBufferPool. Least
+ * recently used streams are closed once more than maxOpen files are open. Not thread-safe; each JobExecutor
+ * owns one.
+ */
+class ReadStreamCache {
+	private static final Logger log = LoggerFactory.getLogger("com.microsoft.azure.datalake.store.FileUploader");
+	private final ADLStoreClient client;
+	private final LinkedHashMap<String, ADLFileInputStream> streams;
+	
+	ReadStreamCache(ADLStoreClient client, final int maxOpen) {
+		this.client = client;
+		this.streams = new LinkedHashMap<String, ADLFileInputStream>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+			protected boolean removeEldestEntry(Map.Entry<String, ADLFileInputStream> eldest) {
+				if(size() > maxOpen) {
+					closeQuietly(eldest.getValue());
+					return true;
+				}
+				return false;
+			}
+		};
+	}
+	
+	/*
+	 * Returns the open stream for the entry, opening one if needed. The directory entry from the enumeration
+	 * is reused, so opening does not cost a round trip.
+	 */
+	ADLFileInputStream get(DirectoryEntry entry) {
+		ADLFileInputStream stream = streams.get(entry.fullName);
+		if(stream == null) {
+			stream = new ADLFileInputStream(entry.fullName, entry, client);
+			streams.put(entry.fullName, stream);
+		}
+		return stream;
+	}
+	
+	/*
+	 * Drops the stream of a file, e.g. after an error left it in an unknown state
+	 */
+	void invalidate(String path) {
+		ADLFileInputStream stream = streams.remove(path);
+		if(stream != null) {
+			closeQuietly(stream);
+		}
+	}
+	
+	void closeAll() {
+		for(ADLFileInputStream stream : new ArrayList<>(streams.values())) {
+			closeQuietly(stream);
+		}
+		streams.clear();
+	}
+	
+	private static void closeQuietly(ADLFileInputStream stream) {
+		try {
+			stream.close();
+		} catch (IOException e) {
+			log.debug("Error closing read stream " + stream.getFilename() + ": " + e.getMessage());
+		}
+	}
+}
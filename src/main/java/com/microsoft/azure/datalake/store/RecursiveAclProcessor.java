@@ -7,62 +7,35 @@
 
 package com.microsoft.azure.datalake.store;
 
+import com.microsoft.azure.datalake.store.AclRuleSet.Rule;
 import com.microsoft.azure.datalake.store.acl.AclEntry;
-import com.microsoft.azure.datalake.store.acl.AclScope;
-import com.microsoft.azure.datalake.store.retrypolicies.ExponentialBackoffPolicy;
+import com.microsoft.azure.datalake.store.acl.AclStatus;
 
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 
 /**
- * Recursively modify ACLs of a directory tree. This class spawns many threads and applies the ACLs in parallel.
- * Call the static method {@code processRequest} to do the work.
+ * Recursively modify ACLs of a directory tree. This class walks the tree with a {@link ParallelTreeWalker} and
+ * applies the ACLs in parallel. Call the static method {@code processRequest} to do the work.
  *
  */
 public class RecursiveAclProcessor {
 
-    private enum PayloadType {
-        MODIFY_ACL_FOR_SINGLE_ENTRY,
-        SET_ACL_FOR_SINGLE_ENTRY,
-        REMOVE_ACL_FOR_SINGLE_ENTRY,
-        PROCESS_DIRECTORY,
-    }
-
-    private class Payload implements Comparable<Payload> {
-        public PayloadType type;
-        public DirectoryEntry de;
-        public String continuation;
-        public Payload(PayloadType type, DirectoryEntry de) {
-            this.type = type;
-            this.de = de;
-            this.continuation = "";
-        }
-
-        public Payload(PayloadType type, DirectoryEntry de, String continuation) {
-            this.type = type;
-            this.de = de;
-            this.continuation = continuation;
-        }
-
-        @Override
-        public int compareTo(Payload that) {
-            return this.type.ordinal() - that.type.ordinal();
-        }
-    }
-
-
-    private RequestedOperation op;
-    private final ProcessingPriorityQueue<Payload> queue = new ProcessingPriorityQueue<>();
     private ADLStoreClient client;
-    private AtomicInteger opCountForProgressBar = new AtomicInteger(0);
+    private ParallelTreeWalker<Rule> walker;
 
-    private static final int ENUMERATION_PAGESIZE = 16000;
+    // restore reads the snapshot file as it goes; this bounds how many of its entries wait in the queue
+    private static final int MAX_QUEUED_RESTORE_ENTRIES = 100000;
 
-    private List<AclEntry> aclSpec;
-    private List<AclEntry> aclSpecForFiles = new ArrayList<>(10);
+    private AclRuleSet ruleSet;
+    private EntryFilter filter;
+    private String rootPath;
+    private boolean flat;   // process the start directory and its files, but none of its subdirectories
+    private int startDepth;
+    private AclSnapshot.Writer snapshotWriter;
+    private String snapshotFile;
 
     // for stats
     private AtomicLong fileCount = new AtomicLong(0);
@@ -83,152 +56,208 @@ public class RecursiveAclProcessor {
      * @throws IOException throws {@link IOException} if there is an error
      */
     public static RecursiveAclProcessorStats processRequest(ADLStoreClient client, String path, List<AclEntry> aclSpec, RequestedOperation op) throws IOException {
+        return processRequest(client, path, aclSpec, op, new EntryFilter());
+    }
+
+    /**
+     * Add ACLs recursively to the part of a directory tree that passes the filter. Pruned subtrees are not enumerated.
+     *
+     * @param client {@code ADLStoreClient} object to use
+     * @param path the root of the path to set ACLs for
+     * @param aclSpec the ACL list to apply
+     * @param op {@link RequestedOperation} enum value specifying the operation to perform
+     * @param filter {@link EntryFilter} selecting the entries to process
+     * @return {@link RecursiveAclProcessorStats} object containing stats of the run
+     * @throws IOException throws {@link IOException} if there is an error
+     */
+    public static RecursiveAclProcessorStats processRequest(ADLStoreClient client, String path, List<AclEntry> aclSpec, RequestedOperation op, EntryFilter filter) throws IOException {
+        return processRequest(client, path, AclRuleSet.forAllEntries(op, aclSpec), filter);
+    }
+
+    /**
+     * Apply a set of ACL rules recursively to a directory tree, in a single traversal. Each entry gets the most
+     * specific rule that applies to it; see {@link AclRuleSet}.
+     *
+     * @param client {@code ADLStoreClient} object to use
+     * @param path the root of the path to set ACLs for
+     * @param ruleSet the {@link AclRuleSet} to apply
+     * @param filter {@link EntryFilter} selecting the entries to process
+     * @return {@link RecursiveAclProcessorStats} object containing stats of the run
+     * @throws IOException throws {@link IOException} if there is an error
+     */
+    public static RecursiveAclProcessorStats processRequest(ADLStoreClient client, String path, AclRuleSet ruleSet, EntryFilter filter) throws IOException {
         RecursiveAclProcessor p = new RecursiveAclProcessor();
-        return p.processRequestInternal(client, path, aclSpec, op);
+        return p.processRequestInternal(client, path, ruleSet, filter);
     }
 
-    private RecursiveAclProcessorStats processRequestInternal(ADLStoreClient client, String path, List<AclEntry> aclSpec, RequestedOperation op) throws IOException {
-        this.client = client;
-        this.aclSpec = aclSpec;
-        this.op = op;
-        for (AclEntry e : aclSpec) {
-            if (e.scope == AclScope.ACCESS) {
-                this.aclSpecForFiles.add(e);
-            }
+    /**
+     * Save the ACLs of a directory tree to a local file, fetching them in parallel. The file can be read back by
+     * {@link #restoreAcls(ADLStoreClient, String)}. If the file name ends with {@code .gz} the file is compressed.
+     *
+     * @param client {@code ADLStoreClient} object to use
+     * @param path the root of the path to save ACLs of
+     * @param localFile the local file to write
+     * @param filter {@link EntryFilter} selecting the entries to save
+     * @return {@link RecursiveAclProcessorStats} object containing stats of the run
+     * @throws IOException throws {@link IOException} if there is an error
+     */
+    public static RecursiveAclProcessorStats exportAcls(ADLStoreClient client, String path, String localFile, EntryFilter filter) throws IOException {
+        RecursiveAclProcessor p = new RecursiveAclProcessor();
+        try (AclSnapshot.Writer writer = new AclSnapshot.Writer(localFile)) {
+            p.snapshotWriter = writer;
+            return p.processRequestInternal(client, path,
+                    AclRuleSet.forAllEntries(RequestedOperation.getacl, new ArrayList<AclEntry>()), filter);
         }
+    }
 
-        DirectoryEntry de = client.getDirectoryEntry(path);
-        if (de.type == DirectoryEntryType.FILE) {
-            processFile(de);
-        } else {
-            processDirectory(de, "");
-        }
+    /**
+     * Re-apply the owners, groups and ACLs saved by {@link #exportAcls(ADLStoreClient, String, String, EntryFilter)},
+     * in parallel. Restoring an owner takes a super-user. The file is read as the work progresses, so it does not
+     * need to fit in memory. Entries that no longer exist are skipped.
+     *
+     * @param client {@code ADLStoreClient} object to use
+     * @param localFile the local file to read
+     * @return {@link RecursiveAclProcessorStats} object containing stats of the run
+     * @throws IOException throws {@link IOException} if there is an error
+     */
+    public static RecursiveAclProcessorStats restoreAcls(ADLStoreClient client, String localFile) throws IOException {
+        RecursiveAclProcessor p = new RecursiveAclProcessor();
+        p.client = client;
+        p.snapshotFile = localFile;
+        p.walker = new ParallelTreeWalker<>(client, null, p.threadCount());
+        p.walker.submit(p.new SnapshotReader());
+        p.walker.run();
+        return p.getStats();
+    }
 
-        // Determine the number of threads to use
-        int numThreads = AdlsTool.threadSetup();
+    /*
+     * Process part of a larger traversal rooted at rootPath, as one shard of a sharded run. Depth, relative paths and
+     * inherited rules are computed as if the traversal had started at rootPath. If flat is set, only path itself and
+     * the files directly in it are processed.
+     */
+    static RecursiveAclProcessorStats processSubtree(ADLStoreClient client, String rootPath, String path, AclRuleSet ruleSet, EntryFilter filter, boolean flat) throws IOException {
+        RecursiveAclProcessor p = new RecursiveAclProcessor();
+        p.flat = flat;
+        p.rootPath = rootPath;
+        return p.processRequestInternal(client, path, ruleSet, filter);
+    }
 
-        // Start threads in the processing thread-pool
-        Thread[] threads = new Thread[numThreads];
-        for (int i = 0; i < numThreads; i++) {
-            threads[i] = new Thread(new RecursiveAclProcessor.ThreadProcessor());
-            threads[i].start();
-        }
+    private RecursiveAclProcessorStats processRequestInternal(ADLStoreClient client, String path, AclRuleSet ruleSet, EntryFilter filter) throws IOException {
+        this.client = client;
+        this.ruleSet = ruleSet;
+        this.filter = filter;
 
-        // wait for all threads to get done
-        for (Thread t : threads) {
-            try {
-                t.join();
-            } catch (InterruptedException ex) {
-                Thread.currentThread().interrupt();
+        DirectoryEntry de = client.getDirectoryEntry(path);
+        int depth = 0;
+        Rule inherited = null;
+        if (this.rootPath == null) {
+            this.rootPath = de.fullName;
+        } else {
+            // replay rule selection from the root down to the parent of the start path
+            String relativePath = EntryFilter.relativePath(rootPath, de.fullName);
+            if (!relativePath.isEmpty()) {
+                String[] components = relativePath.split("/");
+                depth = components.length;
+                String absolute = rootPath;
+                String relative = "";
+                inherited = ruleSet.select(null, rootPath, "", rootPath.substring(rootPath.lastIndexOf('/') + 1));
+                for (int i = 0; i < components.length - 1; i++) {
+                    absolute = absolute.endsWith("/") ? absolute + components[i] : absolute + "/" + components[i];
+                    relative = relative.isEmpty() ? components[i] : relative + "/" + components[i];
+                    inherited = ruleSet.select(inherited, absolute, relative, components[i]);
+                }
             }
         }
-        return new RecursiveAclProcessorStats(fileCount.get(), directoryCount.get());
+        this.startDepth = depth;
+        walker = new ParallelTreeWalker<>(client, new AclVisitor(), threadCount());
+        walker.walk(de, depth, inherited);
+        walker.run();
+        return getStats();
     }
 
+    private int threadCount() {
+        // restore needs one thread to read the file and at least one more
+        return Math.max(2, AdlsTool.threadSetup());
+    }
 
-    private class ThreadProcessor  implements Runnable {
-        public void run() {
-            try {
-                Payload payload;
-                while ((payload = queue.poll()) != null) {
-                    try {
-                        if (payload.type == PayloadType.PROCESS_DIRECTORY) {
-                            processDirectoryTree(payload.de, payload.continuation);
-                        } else if (payload.type == PayloadType.MODIFY_ACL_FOR_SINGLE_ENTRY) {
-                            if (payload.de.type == DirectoryEntryType.FILE) {
-                                client.modifyAclEntries(payload.de.fullName, aclSpecForFiles);
-                            } else {
-                                client.modifyAclEntries(payload.de.fullName, aclSpec);
-                            }
-                        } else if (payload.type == PayloadType.SET_ACL_FOR_SINGLE_ENTRY) {
-                            if (payload.de.type == DirectoryEntryType.FILE) {
-                                client.setAcl(payload.de.fullName, aclSpecForFiles);
-                            } else {
-                                client.setAcl(payload.de.fullName, aclSpec);
-                            }
-                        } else if (payload.type == PayloadType.REMOVE_ACL_FOR_SINGLE_ENTRY) {
-                            if (payload.de.type == DirectoryEntryType.FILE) {
-                                client.removeAclEntries(payload.de.fullName, aclSpecForFiles);
-                            } else {
-                                client.removeAclEntries(payload.de.fullName, aclSpec);
-                            }
-                        }
-                    } catch (ADLException ex) {
-                        if (ex.httpResponseCode == 404) {
-                            // swallow - the file or directory got deleted after we enumerated it
-                        } else {
-                            throw ex;
-                        }
-                    } finally {
-                        queue.unregister();
-                        if (opCountForProgressBar.incrementAndGet() % 1000 == 0) System.out.print('.');
-                    }
-                }
-            } catch (IOException ex) {
-                ex.printStackTrace();
-                System.exit(4100);
-            }
-        }
+    private RecursiveAclProcessorStats getStats() {
+        return new RecursiveAclProcessorStats(fileCount.get(), directoryCount.get());
     }
 
-    private void processDirectoryTree(DirectoryEntry directoryEntry, String continuationToken) throws IOException {
-        List<DirectoryEntry> entries;
-        String directoryName = directoryEntry.fullName;
-
-        DirectoryEntryListWithContinuationToken dirEntContToken =  enumerateDirectoryInternal(directoryName, ENUMERATION_PAGESIZE,
-                continuationToken, null, null);
-        entries = dirEntContToken.getEntries();
-        if (entries == null || entries.isEmpty())
-            return ;
-        for (DirectoryEntry de : entries) {
-            if (de.type == DirectoryEntryType.FILE) {
-                processFile(de);
-            } else {
-                processDirectory(de, "");
+    private class AclVisitor implements ParallelTreeWalker.Visitor<Rule> {
+        public Rule visitDirectory(DirectoryEntry de, int depth, Rule inherited) {
+            if (flat && depth > startDepth) return null;
+            String relativePath = EntryFilter.relativePath(rootPath, de.fullName);
+            Rule rule = ruleSet.select(inherited, de.fullName, relativePath, de.name);
+            if (rule != null && filter.shouldProcess(de, relativePath, depth)) {
+                walker.submit(new AclChange(de, rule));
+                directoryCount.incrementAndGet();
             }
+            return rule;
+        }
 
+        public boolean shouldDescend(DirectoryEntry de, int depth, Rule rule) {
+            if (flat && depth > startDepth) return false;
+            return filter.shouldDescend(de.fullName, EntryFilter.relativePath(rootPath, de.fullName), de.name, depth);
         }
-        continuationToken = dirEntContToken.getContinuationToken();
-        if(continuationToken != null && !continuationToken.isEmpty())
-            processDirectory(directoryEntry, continuationToken);
-    }
 
-    private void processDirectory(DirectoryEntry de, String continuationToken) {
-        queue.add(new Payload(PayloadType.PROCESS_DIRECTORY, de, continuationToken));        // queue the task to recurse this directory
-        enqueueAclChange(de);
-        if (continuationToken == null || continuationToken.isEmpty()) // True only the first time called on this directory
-            directoryCount.incrementAndGet();
+        public void visitFile(DirectoryEntry de, int depth, Rule inherited) {
+            String relativePath = EntryFilter.relativePath(rootPath, de.fullName);
+            Rule rule = ruleSet.select(inherited, de.fullName, relativePath, de.name);
+            if (rule == null || !filter.shouldProcess(de, relativePath, depth)) return;
+            if (rule.appliesToFiles()) walker.submit(new AclChange(de, rule));
+            fileCount.incrementAndGet();
+        }
     }
 
-    private void processFile(DirectoryEntry de) {
-        if (aclSpecForFiles.size() != 0) enqueueAclChange(de);
-        fileCount.incrementAndGet();
-    }
+    private class AclChange implements ParallelTreeWalker.Task {
+        private final DirectoryEntry de;
+        private final Rule rule;
 
-    private void enqueueAclChange(DirectoryEntry de) {
-        if (this.op == RequestedOperation.modifyacl) {
-            queue.add(new Payload(PayloadType.MODIFY_ACL_FOR_SINGLE_ENTRY, de)); // queue the task to setacl ACL on this directory
-        } else if (this.op == RequestedOperation.setacl) {
-            queue.add(new Payload(PayloadType.SET_ACL_FOR_SINGLE_ENTRY, de)); // queue the task to setacl ACL on this directory
-        } else if (this.op == RequestedOperation.removeacl) {
-            queue.add(new Payload(PayloadType.REMOVE_ACL_FOR_SINGLE_ENTRY, de)); // queue the task to setacl ACL on this directory
+        AclChange(DirectoryEntry de, Rule rule) {
+            this.de = de;
+            this.rule = rule;
+        }
+
+        public void run() throws IOException {
+            List<AclEntry> aclSpec = de.type == DirectoryEntryType.FILE ? rule.aclSpecForFiles : rule.aclSpec;
+            if (rule.op == RequestedOperation.modifyacl) {
+                client.modifyAclEntries(de.fullName, aclSpec);
+            } else if (rule.op == RequestedOperation.setacl) {
+                client.setAcl(de.fullName, aclSpec);
+            } else if (rule.op == RequestedOperation.removeacl) {
+                client.removeAclEntries(de.fullName, aclSpec);
+            } else if (rule.op == RequestedOperation.getacl) {
+                AclStatus status = client.getAclStatus(de.fullName);
+                snapshotWriter.write(de, status);
+            }
         }
     }
 
-    private DirectoryEntryListWithContinuationToken enumerateDirectoryInternal(String path,
-                                                            int maxEntriesToRetrieve,
-                                                            String startAfter,
-                                                            String endBefore,
-                                                            UserGroupRepresentation oidOrUpn)
-            throws IOException {
-        RequestOptions opts = new RequestOptions();
-        opts.retryPolicy = new ExponentialBackoffPolicy();
-        opts.timeout = 2 * client.timeout;
-        OperationResponse resp = new OperationResponse();
-        DirectoryEntryListWithContinuationToken dirEnt  = Core.listStatusWithToken(path, startAfter, endBefore, maxEntriesToRetrieve, oidOrUpn, client, opts, resp);
-        if (!resp.successful) {
-            throw client.getExceptionFromResponse(resp, "Error enumerating directory " + path);
+    /*
+     * Runs on one of the walker threads, which stays busy until the whole file is read
+     */
+    private class SnapshotReader implements ParallelTreeWalker.Task {
+        public void run() throws IOException {
+            try (AclSnapshot.Reader reader = new AclSnapshot.Reader(snapshotFile)) {
+                AclSnapshot.Entry entry;
+                while ((entry = reader.next()) != null && !walker.hasFailed()) {
+                    final AclSnapshot.Entry e = entry;
+                    walker.submit(new ParallelTreeWalker.Task() {
+                        public void run() throws IOException {
+                            if (!e.owner.isEmpty() || !e.group.isEmpty()) {
+                                client.setOwner(e.path, e.owner.isEmpty() ? null : e.owner, e.group.isEmpty() ? null : e.group);
+                            }
+                            client.setAcl(e.path, e.fullAclSpec());
+                        }
+                    }, MAX_QUEUED_RESTORE_ENTRIES);
+                    if (entry.isDirectory) {
+                        directoryCount.incrementAndGet();
+                    } else {
+                        fileCount.incrementAndGet();
+                    }
+                }
+            }
         }
-        return dirEnt;
     }
 }
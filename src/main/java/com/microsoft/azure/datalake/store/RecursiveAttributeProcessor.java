@@ -0,0 +1,209 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ * See License.txt in the project root for license information.
+ *
+ */
+
+package com.microsoft.azure.datalake.store;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Recursively change the owner, permission or expiry time of a directory tree. Like {@link RecursiveAclProcessor},
+ * the tree is walked with a {@link ParallelTreeWalker} and the changes are applied in parallel. Call the static
+ * method {@code processRequest} to do the work.
+ */
+public class RecursiveAttributeProcessor {
+
+    /**
+     * The change to apply to each entry. Create one with {@link #owner}, {@link #permission} or {@link #expiry}.
+     */
+    public static class Change {
+        final RequestedOperation op;
+        String owner;
+        String group;
+        String directoryPermission;
+        String filePermission;
+        ExpiryOption expiryOption;
+        long expiryTime;
+
+        private Change(RequestedOperation op) {
+            this.op = op;
+        }
+
+        /**
+         * @param owner the new owner, or null to leave it unchanged
+         * @param group the new owning group, or null to leave it unchanged
+         * @return the change
+         */
+        public static Change owner(String owner, String group) {
+            if (owner == null && group == null) throw new IllegalArgumentException("Neither owner nor group specified");
+            Change c = new Change(RequestedOperation.setowner);
+            c.owner = owner;
+            c.group = group;
+            return c;
+        }
+
+        /**
+         * Permissions are octal strings such as {@code 750}. Files usually need a different permission than
+         * directories, since the x bit means something else on them.
+         *
+         * @param directoryPermission the permission for directories, or null to leave directories alone
+         * @param filePermission the permission for files, or null to leave files alone
+         * @return the change
+         */
+        public static Change permission(String directoryPermission, String filePermission) {
+            if (directoryPermission == null && filePermission == null) throw new IllegalArgumentException("No permission specified");
+            checkPermission(directoryPermission);
+            checkPermission(filePermission);
+            Change c = new Change(RequestedOperation.setpermission);
+            c.directoryPermission = directoryPermission;
+            c.filePermission = filePermission;
+            return c;
+        }
+
+        /**
+         * Expiry times only apply to files; directories are traversed but left unchanged.
+         *
+         * @param option how to interpret expiryTime
+         * @param expiryTime the expiry time in milliseconds, absolute or relative as the option says
+         * @return the change
+         */
+        public static Change expiry(ExpiryOption option, long expiryTime) {
+            Change c = new Change(RequestedOperation.setexpiry);
+            c.expiryOption = option;
+            c.expiryTime = expiryTime;
+            return c;
+        }
+
+        /**
+         * Parses an owner spec: {@code owner}, {@code owner:group} or {@code :group}.
+         *
+         * @param spec the string to parse
+         * @return the change
+         * @throws IllegalArgumentException if the string cannot be parsed
+         */
+        public static Change parseOwner(String spec) {
+            int colon = spec.indexOf(':');
+            String owner = (colon < 0) ? spec : spec.substring(0, colon);
+            String group = (colon < 0) ? null : spec.substring(colon + 1);
+            return owner(owner.isEmpty() ? null : owner, (group == null || group.isEmpty()) ? null : group);
+        }
+
+        /**
+         * Parses an expiry spec: {@code never}; a duration from now such as {@code 30d} or {@code 12h}; a duration
+         * from the creation of each file such as {@code created+30d}; or an absolute time as
+         * {@code yyyy-MM-dd}, {@code yyyy-MM-ddTHH:mm:ss} (UTC) or epoch milliseconds.
+         *
+         * @param spec the string to parse
+         * @return the change
+         * @throws IllegalArgumentException if the string cannot be parsed
+         */
+        public static Change parseExpiry(String spec) {
+            String v = spec.trim().toLowerCase();
+            if (v.equals("never")) return expiry(ExpiryOption.NeverExpire, 0);
+            if (v.startsWith("created+")) return expiry(ExpiryOption.RelativeToCreationDate, parseDuration(v.substring(8), spec));
+            if (v.matches("\\d+[smhd]")) return expiry(ExpiryOption.RelativeToNow, parseDuration(v, spec));
+            return expiry(ExpiryOption.Absolute, EntryFilter.parseTime(spec).getTime());
+        }
+
+        private static long parseDuration(String v, String spec) {
+            if (!v.matches("\\d+[smhd]")) throw new IllegalArgumentException("Illegal expiry: " + spec);
+            char unit = v.charAt(v.length() - 1);
+            long multiplier = (unit == 's') ? 1000L : (unit == 'm') ? 60000L : (unit == 'h') ? 3600000L : 86400000L;
+            return Long.parseLong(v.substring(0, v.length() - 1)) * multiplier;
+        }
+
+        private static void checkPermission(String permission) {
+            if (permission != null && !permission.matches("[0-7]?[0-7]{3}")) {
+                throw new IllegalArgumentException("Illegal permission: " + permission);
+            }
+        }
+
+        boolean appliesToDirectories() {
+            return op == RequestedOperation.setowner || (op == RequestedOperation.setpermission && directoryPermission != null);
+        }
+
+        boolean appliesToFiles() {
+            return op != RequestedOperation.setpermission || filePermission != null;
+        }
+    }
+
+    private ADLStoreClient client;
+    private ParallelTreeWalker<Void> walker;
+    private Change change;
+    private EntryFilter filter;
+    private String rootPath;
+
+    // for stats
+    private AtomicLong fileCount = new AtomicLong(0);
+    private AtomicLong directoryCount = new AtomicLong(0);
+
+    // private constructor, to hide visibility
+    private RecursiveAttributeProcessor() {
+    }
+
+    /**
+     * Apply a change recursively to the part of a directory tree that passes the filter.
+     *
+     * @param client {@code ADLStoreClient} object to use
+     * @param path the root of the tree to change
+     * @param change the {@link Change} to apply
+     * @param filter {@link EntryFilter} selecting the entries to process
+     * @return {@link RecursiveAclProcessorStats} object containing stats of the run
+     * @throws IOException throws {@link IOException} if there is an error
+     */
+    public static RecursiveAclProcessorStats processRequest(ADLStoreClient client, String path, Change change, EntryFilter filter) throws IOException {
+        RecursiveAttributeProcessor p = new RecursiveAttributeProcessor();
+        p.client = client;
+        p.change = change;
+        p.filter = filter;
+        DirectoryEntry de = client.getDirectoryEntry(path);
+        p.rootPath = de.fullName;
+        p.walker = new ParallelTreeWalker<>(client, p.new AttributeVisitor(), AdlsTool.threadSetup());
+        p.walker.walk(de, 0, null);
+        p.walker.run();
+        return new RecursiveAclProcessorStats(p.fileCount.get(), p.directoryCount.get());
+    }
+
+    private class AttributeVisitor implements ParallelTreeWalker.Visitor<Void> {
+        public Void visitDirectory(DirectoryEntry de, int depth, Void inherited) {
+            if (change.appliesToDirectories() && filter.shouldProcess(de, EntryFilter.relativePath(rootPath, de.fullName), depth)) {
+                walker.submit(new AttributeChange(de));
+                directoryCount.incrementAndGet();
+            }
+            return null;
+        }
+
+        public boolean shouldDescend(DirectoryEntry de, int depth, Void state) {
+            return filter.shouldDescend(de.fullName, EntryFilter.relativePath(rootPath, de.fullName), de.name, depth);
+        }
+
+        public void visitFile(DirectoryEntry de, int depth, Void inherited) {
+            if (change.appliesToFiles() && filter.shouldProcess(de, EntryFilter.relativePath(rootPath, de.fullName), depth)) {
+                walker.submit(new AttributeChange(de));
+                fileCount.incrementAndGet();
+            }
+        }
+    }
+
+    private class AttributeChange implements ParallelTreeWalker.Task {
+        private final DirectoryEntry de;
+
+        AttributeChange(DirectoryEntry de) {
+            this.de = de;
+        }
+
+        public void run() throws IOException {
+            if (change.op == RequestedOperation.setowner) {
+                client.setOwner(de.fullName, change.owner, change.group);
+            } else if (change.op == RequestedOperation.setpermission) {
+                client.setPermission(de.fullName, de.type == DirectoryEntryType.FILE ? change.filePermission : change.directoryPermission);
+            } else if (change.op == RequestedOperation.setexpiry) {
+                client.setExpiryTime(de.fullName, change.expiryOption, change.expiryTime);
+            }
+        }
+    }
+}
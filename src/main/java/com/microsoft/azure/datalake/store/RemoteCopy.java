@@ -1,11 +1,17 @@
 package com.microsoft.azure.datalake.store;
 
 
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
 import java.util.PriorityQueue;
 
 
@@ -15,15 +21,32 @@ public class RemoteCopy {
 	private ProcessingQueue<MetaData> metaDataQ;
 	private ConsumerQueue<Job> jobQ;
 	private ADLStoreClient client;
+	private ADLStoreClient destinationClient; // set for copies between ADLS paths
 	private Thread[] executorThreads;
 	private JobExecutor[] executor;
 	private IfExists overwrite;
 	private EnumerateFile jobGen;
+	private FileProgress progress;
+	private ShardedTransfer shards; // set when the chunks are handed out to worker processes
+	private StragglerTracker stragglers;
+	private static final int defaultProgressInterval = 5; // seconds between progress records
+	private int progressInterval;
 	
 	public RemoteCopy(ADLStoreClient client, IfExists overwriteOption) {
 		metaDataQ = new ProcessingQueue<>();
 		jobQ = new ConsumerQueue<>(new PriorityQueue<Job>());
+		progress = new FileProgress();
 		threadCount = AdlsTool.threadSetup();
+		Job.scheduleBySize = getSchedulePolicy();
+		MetaData.compressUploads = getCompressionMode("adlstool.compress");
+		MetaData.decompressDownloads = getCompressionMode("adlstool.decompress");
+		MetaData.localDirectories.clear();
+		stragglers = new StragglerTracker(isEnabled("adlstool.hedge"), isEnabled("adlstool.split"));
+		progressInterval = AdlsTool.getIntProperty("adlstool.progress.interval", defaultProgressInterval);
+		if(progressInterval <= 0) {
+			System.out.println("Illegal value in system property adlstool.progress.interval: " + progressInterval);
+			AdlsTool.exit(1008);
+		}
 		this.client = client;
 		this.overwrite = overwriteOption;
 	}
@@ -35,12 +58,27 @@ public class RemoteCopy {
 	 * @param client ADLStoreClient to use to upload the file.
 	 */
 	public static Stats upload(String source, String destination, ADLStoreClient client, IfExists overwriteOption) throws InterruptedException {
+		return upload(source, destination, client, overwriteOption, null);
+	}
+	
+	/*
+	 * @param shards hands out the chunks to worker processes, or null to transfer them with the threads of this one
+	 */
+	static Stats upload(String source, String destination, ADLStoreClient client, IfExists overwriteOption,
+			ShardedTransfer shards) throws InterruptedException {
 		RemoteCopy F = new RemoteCopy(client, overwriteOption);
+		F.setShards(shards);
 		return F.uploadInternal(source, destination);
 	}
 	
 	public static Stats download(String source, String destination, ADLStoreClient client, IfExists overwriteOption) {
+		return download(source, destination, client, overwriteOption, null);
+	}
+	
+	static Stats download(String source, String destination, ADLStoreClient client, IfExists overwriteOption,
+			ShardedTransfer shards) {
 		RemoteCopy F = new RemoteCopy(client, overwriteOption);
+		F.setShards(shards);
 		DirectoryEntry entry = null;
 		Stats stats = new Stats();
 		
@@ -62,6 +100,41 @@ public class RemoteCopy {
 		return stats;
 	}
 	
+	/*
+	 * Copies the given ADLS file or directory to a directory on ADLS, possibly in another account, without
+	 * staging the data on local disk.
+	 * @param source Source directory or file.
+	 * @param destination Destination directory to copy the files to.
+	 * @param sourceClient ADLStoreClient to read the source with.
+	 * @param destinationClient ADLStoreClient to write the destination with.
+	 */
+	public static Stats copy(String source, String destination, ADLStoreClient sourceClient,
+			ADLStoreClient destinationClient, IfExists overwriteOption) throws InterruptedException {
+		RemoteCopy F = new RemoteCopy(sourceClient, overwriteOption);
+		F.destinationClient = destinationClient;
+		Stats stats = new Stats();
+		DirectoryEntry entry = null;
+		try {
+			entry = sourceClient.getDirectoryEntry(source);
+		} catch (IOException e) {
+			log.error("Error collecting details of source from ADLS");
+			log.error(e.getMessage());
+			System.out.println("Unable to collect details of source: " + source + " from ADLS");
+			stats.failedTransfers.add(source);
+			return stats;
+		}
+		if(entry.type == DirectoryEntryType.FILE) {
+			F.verifyDestination(destination);
+		}
+		Thread generateJob = F.startEnumeration(entry, destination, true);
+		F.startUploaderThreads(F.jobQ);
+		Thread statusThread = F.startStatusBar(generateJob);
+		F.waitForCompletion(generateJob);
+		Stats R = F.joinUploaderThreads();
+		stopStatusBar(statusThread);
+		return R;
+	}
+	
 	private Stats uploadInternal(String source, String destination) throws InterruptedException {
 		if(source == null) {
 			throw new IllegalArgumentException("source is null");
@@ -91,6 +164,52 @@ public class RemoteCopy {
 		return upload(srcDir, destination);
 	}
 	
+	/*
+	 * adlstool.schedule=file (default) completes files one after another, size runs the largest chunks first
+	 */
+	private static boolean getSchedulePolicy() {
+		String policy = System.getProperty("adlstool.schedule", "file");
+		if(!policy.equals("file") && !policy.equals("size")) {
+			System.out.println("Illegal value in system property adlstool.schedule: " + policy);
+			AdlsTool.exit(1008);
+		}
+		return policy.equals("size");
+	}
+	
+	/*
+	 * adlstool.compress=gzip compresses uploads chunk by chunk, adlstool.decompress=gzip decompresses downloaded
+	 * .gz files; none (default) transfers the bytes as they are
+	 */
+	private static boolean getCompressionMode(String property) {
+		String mode = System.getProperty(property, "none");
+		if(!mode.equals("gzip") && !mode.equals("none")) {
+			System.out.println("Illegal value in system property " + property + ": " + mode);
+			AdlsTool.exit(1008);
+		}
+		return mode.equals("gzip");
+	}
+	
+	private void setShards(ShardedTransfer shards) {
+		if(shards != null && (MetaData.compressUploads || MetaData.decompressDownloads)) {
+			System.out.println("adlstool.compress and adlstool.decompress cannot be combined with shard workers");
+			AdlsTool.exit(1008);
+		}
+		this.shards = shards;
+	}
+	
+	/*
+	 * Tail balancing, see StragglerTracker: adlstool.hedge=on (default) runs a second attempt of the chunks that
+	 * hold up the end of a transfer, adlstool.split=on (default) splits running chunks for idle executors
+	 */
+	private static boolean isEnabled(String property) {
+		String mode = System.getProperty(property, "on");
+		if(!mode.equals("on") && !mode.equals("off")) {
+			System.out.println("Illegal value in system property " + property + ": " + mode);
+			AdlsTool.exit(1008);
+		}
+		return mode.equals("on");
+	}
+	
 	private static boolean isDirectory(File inFile) {
 		return inFile.listFiles() != null;
 	}
@@ -99,7 +218,9 @@ public class RemoteCopy {
 		executorThreads = new Thread[threadCount];
 		executor = new JobExecutor[threadCount];
 		for(int i = 0; i < executorThreads.length; i++) {
-			executor[i] = new JobExecutor(jobQ, client, overwrite);
+			executor[i] = destinationClient == null ? new JobExecutor(jobQ, client, overwrite, progress)
+			                                        : new JobExecutor(jobQ, destinationClient, client, overwrite, progress);
+			executor[i].stragglers = stragglers;
 			executorThreads[i] = new Thread(executor[i]);
 			executorThreads[i].start();
 		}
@@ -119,46 +240,102 @@ public class RemoteCopy {
 		return t;
 	}
 	
+	private Thread startEnumeration(DirectoryEntry source, String destination, boolean copy) {
+		jobGen = new EnumerateFile(source, destination, metaDataQ, jobQ, client, copy);
+		Thread t = new Thread(jobGen);
+		t.start();
+		return t;
+	}
+	
 	private Stats download(DirectoryEntry source, String destination) throws InterruptedException {
 		Thread generateJob = startEnumeration(source, destination);
-		startUploaderThreads(jobQ);
-		Thread statusThread = waitForCompletion(generateJob);
+		startUploaderThreads(executorQueue(false));
+		Thread statusThread = startStatusBar(generateJob);
+		waitForCompletion(generateJob);
 		Stats R = joinUploaderThreads();
-		statusThread.interrupt();
+		stopStatusBar(statusThread);
 		return R;
 	}
 	
 	private Stats upload(File source, String destination) throws InterruptedException {
 		Thread generateJob = startEnumeration(source, destination);
-		startUploaderThreads(jobQ);
-		Thread statusThread = waitForCompletion(generateJob);
+		startUploaderThreads(executorQueue(true));
+		Thread statusThread = startStatusBar(generateJob);
+		waitForCompletion(generateJob);
 		Stats R = joinUploaderThreads();
-		statusThread.interrupt();
+		stopStatusBar(statusThread);
 		return R;
 	}
 	
-	private Thread waitForCompletion(Thread generateJob) throws InterruptedException {
+	/*
+	 * The queue the executors work on: the jobs of the enumeration, or with shard workers the chunks they are done
+	 * with, for the executors to finish the files
+	 */
+	private ConsumerQueue<Job> executorQueue(boolean upload) {
+		if(shards == null) {
+			return jobQ;
+		}
+		ConsumerQueue<Job> doneQ = new ConsumerQueue<>(new ArrayDeque<Job>());
+		shards.start(jobQ, doneQ, client, overwrite, upload, threadCount);
+		return doneQ;
+	}
+	
+	private void waitForCompletion(Thread generateJob) throws InterruptedException {
 		generateJob.join();
 		jobQ.markComplete(); // Consumer threads wait until enumeration is active.
-		StatusBar statusBar = new StatusBar(jobGen.getBytesToTransmit(), executor);
-		Thread status = new Thread(statusBar);  // start a status bar.
+	}
+	
+	/*
+	 * The status bar runs from the start, while the source is still being enumerated
+	 */
+	private Thread startStatusBar(Thread generateJob) {
+		Thread status = new Thread(new StatusBar(generateJob, openProgressFile(), progressInterval));
+		status.setDaemon(true);
 		status.start();
 		return status;
 	}
 	
+	/*
+	 * Waits for the final progress record to be written
+	 */
+	private static void stopStatusBar(Thread status) throws InterruptedException {
+		status.interrupt();
+		status.join();
+	}
+	
+	/*
+	 * adlstool.progress names a file, or /dev/fd/<n>, that progress records are appended to as JSON, one per line
+	 */
+	private static OutputStream openProgressFile() {
+		String path = System.getProperty("adlstool.progress");
+		if(path == null) {
+			return null;
+		}
+		try {
+			return new FileOutputStream(path, true);
+		} catch (IOException e) {
+			log.error("Error opening progress file " + path + ": " + e.getMessage());
+			System.out.println("Unable to open progress file " + path + ", no progress records are written");
+			return null;
+		}
+	}
+	
 	private Stats joinUploaderThreads() throws InterruptedException {
 		Stats result = new Stats();
 		for(int i = 0; i < executorThreads.length; i++) {
 			executorThreads[i].join();
 			result.update(executor[i].stats);
 		}
+		result.failedTransfers.addAll(jobGen.getManifestErrors());
+		result.timeToFirstFileInMilliSeconds = progress.getTimeToFirstFile();
+		result.maxFilesInProgress = progress.getMaxFilesInProgress();
 		return result;
 	}
 
 	private boolean verifyDestination(String dst) {
 		DirectoryEntry de = null;
 		try {
-			de = client.getDirectoryEntry(dst);
+			de = (destinationClient != null ? destinationClient : client).getDirectoryEntry(dst);
 		} catch (IOException e) {
 			log.debug("Destination directory doesn't exists, will be created");
 		}
@@ -169,30 +346,139 @@ public class RemoteCopy {
 		return true;
 	}
 	
+	/*
+	 * Prints the progress of the transfer every half second: the share of the bytes enumerated so far that is done,
+	 * the throughput in MB/s and files/s, averaged exponentially over the last RATE_WINDOW seconds or so, the time
+	 * left once enumeration is complete, and the chunks in flight and queued. With a progress file, the same numbers
+	 * are written to it as a JSON record every interval seconds, and once more when the transfer is done.
+	 */
 	class StatusBar implements Runnable {
-		private long totalBytesToTransfer;
-		private JobExecutor[] executors;
 		private static final long sleepTime = 500;
-		StatusBar(long bytesToTransfer, JobExecutor[] uploaders) {
-			totalBytesToTransfer = bytesToTransfer;
-			this.executors = uploaders;
+		private static final double RATE_WINDOW = 10.0;
+		private final Thread generateJob;
+		private final long startTime = System.currentTimeMillis();
+		private final JsonGenerator json;
+		private final long jsonIntervalMillis;
+		private long lastTime = startTime, lastBytes = 0, lastFiles = 0, lastRecord = 0;
+		private double bytesPerSecond = 0, filesPerSecond = 0;
+		
+		StatusBar(Thread generateJob, OutputStream progressFile, int intervalSeconds) {
+			this.generateJob = generateJob;
+			this.jsonIntervalMillis = intervalSeconds * 1000L;
+			JsonGenerator generator = null;
+			if(progressFile != null) {
+				try {
+					generator = new JsonFactory().createGenerator(progressFile, JsonEncoding.UTF8);
+					generator.setRootValueSeparator(null); // records are separated by newlines instead
+				} catch (IOException e) {
+					log.error("Error writing progress records: " + e.getMessage());
+				}
+			}
+			this.json = generator;
 		}
+		
 		public void run() {
-			int percent = 0;
-			while(percent < 100) {
+			boolean done = false;
+			while(!done) {
 				try {
 					Thread.sleep(sleepTime);
 				} catch (InterruptedException e) {
-					break;
+					done = true;
 				}
-				long bytesTransferred = 0;
-				for(int i = 0; i < executors.length; i++) {
-					bytesTransferred += executor[i].stats.getBytesTransferred();
+				long now = System.currentTimeMillis();
+				updateRates(now);
+				if(!done) {
+					printStatus();
 				}
-				percent = (int) ((100.0*bytesTransferred)/totalBytesToTransfer);
-				System.out.printf("%% Complete: %d\r", percent);
+				if(json != null && (done || now - lastRecord >= jsonIntervalMillis)) {
+					writeRecord(now, done);
+					lastRecord = now;
+				}
+			}
+			closeRecords();
+		}
+		
+		private void updateRates(long now) {
+			long bytes = progress.getBytesTransferred();
+			long files = progress.getFilesFinished();
+			double seconds = (now - lastTime) / 1000.0;
+			if(seconds <= 0) {
+				return;
 			}
+			double weight = 1 - Math.exp(-seconds / RATE_WINDOW);
+			bytesPerSecond += weight * ((bytes - lastBytes) / seconds - bytesPerSecond);
+			filesPerSecond += weight * ((files - lastFiles) / seconds - filesPerSecond);
+			lastTime = now;
+			lastBytes = bytes;
+			lastFiles = files;
 		}
 		
+		/*
+		 * Seconds until the bytes enumerated are all transferred at the current rate, -1 while that is unknown
+		 */
+		private long eta(boolean enumerating) {
+			long remaining = jobGen.getBytesToTransmit() - progress.getBytesSettled();
+			if(enumerating || bytesPerSecond < 1) {
+				return -1;
+			}
+			return (long) Math.ceil(Math.max(0, remaining) / bytesPerSecond);
+		}
+		
+		private void printStatus() {
+			boolean enumerating = generateJob.isAlive();
+			long total = jobGen.getBytesToTransmit();
+			double percent = total > 0 ? (100.0 * progress.getBytesSettled()) / total : 0;
+			String scope = enumerating ? String.format("Enumerating: %d files, %.1f MB found, %d directories queued; ",
+					jobGen.getFilesToTransmit(), total / 1048576.0, metaDataQ.size())
+					: String.format("%% Complete: %.1f, ", percent);
+			long eta = eta(enumerating);
+			System.out.printf("%s%d/%d files, %.1f MB/s, %.1f files/s, ETA %s, chunks in flight: %d, queued: %d, files in progress: %d  \r",
+					scope, progress.getFilesFinished(), jobGen.getFilesToTransmit(), bytesPerSecond / 1048576.0,
+					filesPerSecond, eta < 0 ? "-" : String.format("%d:%02d:%02d", eta / 3600, eta / 60 % 60, eta % 60),
+					progress.getChunksInFlight(), jobQ.size(), progress.getFilesInProgress());
+		}
+		
+		private void writeRecord(long now, boolean done) {
+			boolean enumerating = generateJob.isAlive();
+			long eta = eta(enumerating);
+			try {
+				json.writeStartObject();
+				json.writeNumberField("time", now);
+				json.writeNumberField("elapsedMillis", now - startTime);
+				json.writeBooleanField("enumerating", enumerating);
+				json.writeNumberField("filesEnumerated", jobGen.getFilesToTransmit());
+				json.writeNumberField("bytesEnumerated", jobGen.getBytesToTransmit());
+				json.writeNumberField("directoriesQueued", metaDataQ.size());
+				json.writeNumberField("filesDone", progress.getFilesFinished());
+				json.writeNumberField("filesInProgress", progress.getFilesInProgress());
+				json.writeNumberField("bytesTransferred", progress.getBytesTransferred());
+				json.writeNumberField("bytesDone", progress.getBytesSettled());
+				json.writeNumberField("bytesPerSecond", Math.round(bytesPerSecond));
+				json.writeNumberField("filesPerSecond", Math.round(filesPerSecond * 10) / 10.0);
+				if(eta < 0) {
+					json.writeNullField("etaSeconds");
+				} else {
+					json.writeNumberField("etaSeconds", eta);
+				}
+				json.writeNumberField("chunksInFlight", progress.getChunksInFlight());
+				json.writeNumberField("chunksQueued", jobQ.size());
+				json.writeBooleanField("final", done);
+				json.writeEndObject();
+				json.writeRaw('\n');
+				json.flush();
+			} catch (IOException e) {
+				log.error("Error writing progress record: " + e.getMessage());
+			}
+		}
+		
+		private void closeRecords() {
+			if(json != null) {
+				try {
+					json.close();
+				} catch (IOException e) {
+					log.error("Error closing progress file: " + e.getMessage());
+				}
+			}
+		}
 	}
 }
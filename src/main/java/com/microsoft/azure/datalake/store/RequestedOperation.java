@@ -8,6 +8,6 @@
 package com.microsoft.azure.datalake.store;
 
 /**
- * Specifies the ACL operation to apply
+ * Specifies the operation to perform
  */
-public enum RequestedOperation {modifyacl, setacl, removeacl, upload, download}
+public enum RequestedOperation {modifyacl, setacl, removeacl, upload, download, applyaclrules, getacl, restoreacl, shardworker, copy, du, setowner, setpermission, setexpiry, daemon, submit, cleanup}
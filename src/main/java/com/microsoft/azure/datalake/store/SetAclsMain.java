@@ -13,44 +13,149 @@ import java.io.IOException;
 import java.util.List;
 
 /**
- * Main method for the ACL operations
+ * Main method for the ACL, owner, permission and expiry operations
  */
 class SetAclsMain
 {
 
     public static void main(RequestedOperation op, ADLStoreClient client, String[] args )
     {
+        if (op == RequestedOperation.getacl || op == RequestedOperation.restoreacl) {
+            snapshotMain(op, client, args);
+            return;
+        }
+        if (op == RequestedOperation.setowner || op == RequestedOperation.setpermission || op == RequestedOperation.setexpiry) {
+            attributeMain(op, client, args);
+            return;
+        }
+
         if (args.length != 4 ) {
             System.out.println("Illegal number of command-line parameters: " + args.length);
             AdlsTool.usage(1000);
         }
 
         String path = args[2];
-        List<AclEntry> acl = null;
+        AclRuleSet rules = null;
 
-        try {
-            acl = AclEntry.parseAclSpec(args[3]);
-        } catch (Exception ex) {
-            System.out.println("Illegal ACLSpec specified: " + args[3]);
-            AdlsTool.usage(1003);
+        if (op == RequestedOperation.applyaclrules) {
+            try {
+                rules = AclRuleSet.fromFile(args[3]);
+            } catch (IOException ex) {
+                System.out.println("Unable to read rule file: " + args[3]);
+                AdlsTool.usage(1004);
+            } catch (IllegalArgumentException ex) {
+                System.out.println("Illegal rule in " + args[3] + ": " + ex.getMessage());
+                AdlsTool.usage(1005);
+            }
+            // setacl is not supported on the command-line, see AdlsTool.main
+            if (rules != null && rules.usesOperation(RequestedOperation.setacl)) {
+                System.out.println("Illegal operation specified in rule file (setacl)");
+                AdlsTool.usage(1011);
+            }
+        } else {
+            try {
+                List<AclEntry> acl = AclEntry.parseAclSpec(args[3]);
+                rules = AclRuleSet.forAllEntries(op, acl);
+            } catch (Exception ex) {
+                System.out.println("Illegal ACLSpec specified: " + args[3]);
+                AdlsTool.usage(1003);
+            }
         }
 
-        if (acl != null) {
+        if (rules != null) {
             try {
                 long start = System.currentTimeMillis();
-                RecursiveAclProcessorStats stats = RecursiveAclProcessor.processRequest(client, path, acl, op);
+                RecursiveAclProcessorStats stats;
+                int workers = AdlsTool.getIntProperty("adlstool.shard.workers", 0);
+                int port = AdlsTool.getIntProperty("adlstool.shard.port", 0);
+                if (workers > 0 || port > 0) {
+                    stats = ShardedAclProcessor.processRequest(client, args[1], path, rules, AdlsTool.getEntryFilter(), workers, port);
+                } else {
+                    stats = RecursiveAclProcessor.processRequest(client, path, rules, AdlsTool.getEntryFilter());
+                }
                 long stop = System.currentTimeMillis();
-                System.out.println("COMPLETE");
-                System.out.println("# of Files Processed: " + stats.fileCount);
-                System.out.println("# of Directories Processed: " + stats.directoryCount);
-                System.out.println("Time taken: " + AdlsTool.timeString(stop-start));
+                printStats(stats, stop - start);
             } catch (IOException ex) {
                 System.out.println("Error setting ACLs");
                 ex.printStackTrace();
-                System.exit(5001);
+                AdlsTool.exit(5001);
             }
         }
     }
 
+    /*
+     * getacl <credfile> <path> <localfile> and restoreacl <credfile> <localfile>
+     */
+    private static void snapshotMain(RequestedOperation op, ADLStoreClient client, String[] args) {
+        int expectedArgs = (op == RequestedOperation.getacl) ? 4 : 3;
+        if (args.length != expectedArgs) {
+            System.out.println("Illegal number of command-line parameters: " + args.length);
+            AdlsTool.usage(1000);
+        }
+
+        try {
+            long start = System.currentTimeMillis();
+            RecursiveAclProcessorStats stats;
+            if (op == RequestedOperation.getacl) {
+                stats = RecursiveAclProcessor.exportAcls(client, args[2], args[3], AdlsTool.getEntryFilter());
+            } else {
+                stats = RecursiveAclProcessor.restoreAcls(client, args[2]);
+            }
+            long stop = System.currentTimeMillis();
+            printStats(stats, stop - start);
+        } catch (IOException ex) {
+            System.out.println(op == RequestedOperation.getacl ? "Error saving ACLs" : "Error restoring ACLs");
+            ex.printStackTrace();
+            AdlsTool.exit(5001);
+        }
+    }
+
+    /*
+     * setowner <credfile> <path> <owner>[:<group>], setpermission <credfile> <path> <dirperm> [<fileperm>]
+     * and setexpiry <credfile> <path> <expiry>
+     */
+    private static void attributeMain(RequestedOperation op, ADLStoreClient client, String[] args) {
+        int maxArgs = (op == RequestedOperation.setpermission) ? 5 : 4;
+        if (args.length < 4 || args.length > maxArgs) {
+            System.out.println("Illegal number of command-line parameters: " + args.length);
+            AdlsTool.usage(1000);
+        }
+
+        RecursiveAttributeProcessor.Change change = null;
+        try {
+            if (op == RequestedOperation.setowner) {
+                change = RecursiveAttributeProcessor.Change.parseOwner(args[3]);
+            } else if (op == RequestedOperation.setpermission) {
+                // files get the directory permission unless given their own; "-" leaves that kind of entry alone
+                String filePermission = (args.length == 5) ? args[4] : args[3];
+                change = RecursiveAttributeProcessor.Change.permission(args[3].equals("-") ? null : args[3],
+                        filePermission.equals("-") ? null : filePermission);
+            } else {
+                change = RecursiveAttributeProcessor.Change.parseExpiry(args[3]);
+            }
+        } catch (IllegalArgumentException ex) {
+            System.out.println("Illegal " + op + " argument: " + ex.getMessage());
+            AdlsTool.usage(1003);
+        }
+
+        try {
+            long start = System.currentTimeMillis();
+            RecursiveAclProcessorStats stats = RecursiveAttributeProcessor.processRequest(client, args[2], change, AdlsTool.getEntryFilter());
+            long stop = System.currentTimeMillis();
+            printStats(stats, stop - start);
+        } catch (IOException ex) {
+            System.out.println("Error applying " + op);
+            ex.printStackTrace();
+            AdlsTool.exit(5001);
+        }
+    }
+
+    private static void printStats(RecursiveAclProcessorStats stats, long millis) {
+        System.out.println("COMPLETE");
+        System.out.println("# of Files Processed: " + stats.fileCount);
+        System.out.println("# of Directories Processed: " + stats.directoryCount);
+        System.out.println("Time taken: " + AdlsTool.timeString(millis));
+    }
+
 
 }
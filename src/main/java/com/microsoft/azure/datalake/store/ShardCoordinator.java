@@ -0,0 +1,312 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ * See License.txt in the project root for license information.
+ *
+ */
+
+package com.microsoft.azure.datalake.store;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/*
+ * Hands out tasks to worker processes (see ShardWorker) over TCP and collects their results.
+ *
+ * The protocol is line based. A worker connects and sends "HELLO <token>"; the coordinator answers with
+ * "JOB <job description>", then sends one "TASK <id> <payload>" at a time and waits for "DONE <id> <result>" or
+ * "FAIL <id> <message>". When all tasks are done it sends "BYE". Fields are tab-separated.
+ *
+ * A task whose worker fails or disconnects is handed to another worker, up to MAX_ATTEMPTS times. Workers can
+ * join at any time, and leave at any time without losing work.
+ */
+class ShardCoordinator {
+    private static final Logger log = LoggerFactory.getLogger("com.microsoft.azure.datalake.store.ShardCoordinator");
+    static final int MAX_ATTEMPTS = 3;
+    private static final long NO_WORKER_TIMEOUT_MILLIS = 10 * 60 * 1000;
+
+    interface ResultHandler {
+        void completed(String task, String result);
+        void failed(String task, String message);
+    }
+
+    private static class Task {
+        final long id;
+        final String payload;
+        int attempts = 0;
+        Task(long id, String payload) {
+            this.id = id;
+            this.payload = payload;
+        }
+    }
+
+    private final String job;
+    private final ResultHandler handler;
+    private final String token = UUID.randomUUID().toString();
+    private final ArrayDeque<Task> pending = new ArrayDeque<>();
+    private final List<Socket> connections = new ArrayList<>();
+    private long nextId = 0;
+    private int inFlight = 0;
+    private int liveWorkers = 0;
+    private int runningLocalWorkers = 0;
+    private boolean noMoreTasks = false;
+    private boolean aborted = false;
+
+    /*
+     * @param job tab-separated job description, sent to every worker before its first task
+     * @param handler called with the outcome of each task; calls are serialized
+     */
+    ShardCoordinator(String job, ResultHandler handler) {
+        this.job = job;
+        this.handler = handler;
+    }
+
+    synchronized void addTask(String payload) {
+        if (aborted) {
+            handler.failed(payload, "no workers left");
+            return;
+        }
+        pending.add(new Task(nextId++, payload));
+        notifyAll();
+    }
+
+    synchronized void noMoreTasks() {
+        noMoreTasks = true;
+        notifyAll();
+    }
+
+    /*
+     * Listens for workers, starts the local ones, and returns when all tasks are done.
+     *
+     * @param credFile credential file passed to local workers
+     * @param localWorkers number of worker processes to start on this host
+     * @param port port to listen on for workers on other hosts; 0 to accept local workers only
+     */
+    void run(String credFile, int localWorkers, int port) throws IOException, InterruptedException {
+        final boolean remote = port > 0;
+        final ServerSocket server = remote ? new ServerSocket(port)
+                                           : new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        try {
+            if (remote) {
+                System.out.println("Waiting for workers on port " + server.getLocalPort()
+                        + ". Start them with " + ShardWorker.TOKEN_VARIABLE + "=" + token + " in their environment");
+            }
+            Thread acceptor = new Thread(new Runnable() {
+                public void run() {
+                    acceptWorkers(server);
+                }
+            });
+            acceptor.setDaemon(true);
+            acceptor.start();
+            for (int i = 0; i < localWorkers; i++) {
+                startLocalWorker(credFile, server.getLocalPort(), i);
+            }
+            waitForCompletion(remote);
+        } finally {
+            server.close();
+            closeConnections();
+        }
+    }
+
+    private void acceptWorkers(ServerSocket server) {
+        while (!server.isClosed()) {
+            try {
+                final Socket socket = server.accept();
+                synchronized (this) {
+                    connections.add(socket);
+                }
+                Thread t = new Thread(new Runnable() {
+                    public void run() {
+                        serveWorker(socket);
+                    }
+                });
+                t.setDaemon(true);
+                t.start();
+            } catch (IOException ex) {
+                if (!server.isClosed()) log.warn("Error accepting worker connection: " + ex.getMessage());
+            }
+        }
+    }
+
+    private void startLocalWorker(String credFile, int port, int n) throws IOException {
+        List<String> command = new ArrayList<>();
+        command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        for (Map.Entry<Object, Object> e : System.getProperties().entrySet()) {
+            String key = e.getKey().toString();
+            if ((key.startsWith("adlstool.") && !key.startsWith("adlstool.shard.")) || key.startsWith("log4j")) {
+                command.add("-D" + key + "=" + e.getValue());
+            }
+        }
+        command.add(AdlsTool.class.getName());
+        command.add(RequestedOperation.shardworker.toString());
+        command.add(credFile);
+        command.add("127.0.0.1:" + port);
+
+        File logFile = new File(System.getProperty("java.io.tmpdir"), "adlstool-worker-" + n + ".log");
+        ProcessBuilder pb = new ProcessBuilder(command);
+        // in the environment rather than on the command line, where any local user could read it with ps
+        pb.environment().put(ShardWorker.TOKEN_VARIABLE, token);
+        pb.redirectErrorStream(true);
+        pb.redirectOutput(ProcessBuilder.Redirect.to(logFile));
+        final Process process = pb.start();
+        log.debug("Started local worker " + n + ", output in " + logFile.getAbsolutePath());
+        synchronized (this) {
+            runningLocalWorkers++;
+        }
+        Thread t = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    process.waitFor();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+                localWorkerExited();
+            }
+        });
+        t.setDaemon(true);
+        t.start();
+    }
+
+    private void serveWorker(Socket socket) {
+        Task task = null;
+        boolean joined = false;
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+             BufferedWriter out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8))) {
+            if (!("HELLO\t" + token).equals(in.readLine())) {
+                log.warn("Rejected worker connection from " + socket.getRemoteSocketAddress());
+                return;
+            }
+            workerJoined();
+            joined = true;
+            send(out, "JOB\t" + job);
+            while ((task = take()) != null) {
+                send(out, "TASK\t" + task.id + "\t" + task.payload);
+                String reply = in.readLine();
+                if (reply == null) throw new EOFException("worker closed the connection");
+                String[] fields = reply.split("\t", 3);
+                if (fields.length != 3 || !fields[1].equals(Long.toString(task.id))) {
+                    throw new IOException("unexpected reply from worker: " + reply);
+                }
+                if (fields[0].equals("DONE")) {
+                    completed(task, fields[2]);
+                } else {
+                    retry(task, fields[2]);
+                }
+                task = null;
+            }
+            send(out, "BYE");
+        } catch (IOException | InterruptedException ex) {
+            log.warn("Worker " + socket.getRemoteSocketAddress() + " lost: " + ex.getMessage());
+            if (task != null) retry(task, ex.getMessage());
+        } finally {
+            if (joined) workerLeft();
+            try {
+                socket.close();
+            } catch (IOException ex) {
+                // ignore
+            }
+        }
+    }
+
+    private static void send(BufferedWriter out, String line) throws IOException {
+        out.write(line);
+        out.write('\n');
+        out.flush();
+    }
+
+    private synchronized Task take() throws InterruptedException {
+        while (pending.isEmpty() && !isDone())
+            wait();
+        if (pending.isEmpty()) return null;
+        inFlight++;
+        return pending.poll();
+    }
+
+    private synchronized void completed(Task task, String result) {
+        inFlight--;
+        handler.completed(task.payload, result);
+        notifyAll();
+    }
+
+    private synchronized void retry(Task task, String message) {
+        inFlight--;
+        task.attempts++;
+        if (task.attempts >= MAX_ATTEMPTS || aborted) {
+            handler.failed(task.payload, message);
+        } else {
+            log.debug("Retrying task " + task.payload + ": " + message);
+            pending.addFirst(task);
+        }
+        notifyAll();
+    }
+
+    private synchronized void workerJoined() {
+        liveWorkers++;
+        notifyAll();
+    }
+
+    private synchronized void workerLeft() {
+        liveWorkers--;
+        notifyAll();
+    }
+
+    private synchronized void localWorkerExited() {
+        runningLocalWorkers--;
+        notifyAll();
+    }
+
+    private boolean isDone() {
+        return aborted || (noMoreTasks && pending.isEmpty() && inFlight == 0);
+    }
+
+    /*
+     * Gives up when no worker is left to do the remaining work: immediately if only local workers were expected
+     * and all of them exited, otherwise after NO_WORKER_TIMEOUT_MILLIS without any worker.
+     */
+    private synchronized void waitForCompletion(boolean remote) throws InterruptedException {
+        long noWorkerSince = System.currentTimeMillis();
+        while (!isDone()) {
+            long now = System.currentTimeMillis();
+            if (liveWorkers > 0) {
+                noWorkerSince = now;
+            } else if ((!remote && runningLocalWorkers == 0) || now - noWorkerSince > NO_WORKER_TIMEOUT_MILLIS) {
+                log.error("No workers left, giving up on " + pending.size() + " remaining tasks");
+                aborted = true;
+                for (Task t : pending) handler.failed(t.payload, "no workers left");
+                pending.clear();
+                notifyAll();
+                break;
+            }
+            wait(1000);
+        }
+    }
+
+    private synchronized void closeConnections() {
+        for (Socket s : connections) {
+            try {
+                s.close();
+            } catch (IOException ex) {
+                // ignore
+            }
+        }
+    }
+}
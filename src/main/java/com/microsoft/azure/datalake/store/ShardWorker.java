@@ -0,0 +1,117 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ * See License.txt in the project root for license information.
+ *
+ */
+
+package com.microsoft.azure.datalake.store;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Main method for worker processes of a sharded run. The worker connects to a {@link ShardCoordinator}, runs the
+ * tasks it is handed one at a time and reports the results back.
+ */
+class ShardWorker {
+    static final String TOKEN_VARIABLE = "ADLSTOOL_SHARD_TOKEN";
+
+    /*
+     * Runs the tasks of one kind of job
+     */
+    interface TaskRunner {
+        String run(String payload) throws Exception;
+    }
+
+    public static void main(RequestedOperation op, ADLStoreClient client, String[] args) {
+        if (args.length != 3) {
+            System.out.println("Illegal number of command-line parameters: " + args.length);
+            AdlsTool.usage(1000);
+        }
+        int colon = args[2].lastIndexOf(':');
+        if (colon <= 0) {
+            System.out.println("Illegal coordinator address, expected <host>:<port>: " + args[2]);
+            AdlsTool.usage(1006);
+        }
+        String host = args[2].substring(0, colon);
+        int port = 0;
+        try {
+            port = Integer.parseInt(args[2].substring(colon + 1));
+        } catch (NumberFormatException ex) {
+            System.out.println("Illegal coordinator port: " + args[2]);
+            AdlsTool.usage(1006);
+        }
+
+        try {
+            long tasks = runTasks(client, host, port);
+            System.out.println("COMPLETE");
+            System.out.println("# of Tasks Processed: " + tasks);
+        } catch (IOException ex) {
+            System.out.println("Error communicating with coordinator " + args[2]);
+            ex.printStackTrace();
+            AdlsTool.exit(5001);
+        }
+    }
+
+    /*
+     * The token from the environment, where the coordinator puts it for local workers; the system property is still
+     * read for workers started by hand
+     */
+    private static String token() {
+        String token = System.getenv(TOKEN_VARIABLE);
+        return token != null ? token : System.getProperty("adlstool.shard.token", "");
+    }
+
+    private static long runTasks(ADLStoreClient client, String host, int port) throws IOException {
+        long taskCount = 0;
+        try (Socket socket = new Socket(host, port);
+             BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+             BufferedWriter out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8))) {
+            send(out, "HELLO\t" + token());
+            String line = in.readLine();
+            if (line == null || !line.startsWith("JOB\t")) {
+                throw new IOException("Coordinator rejected this worker");
+            }
+            TaskRunner runner = createRunner(client, line.substring(4).split("\t", -1));
+
+            while ((line = in.readLine()) != null && !line.equals("BYE")) {
+                String[] fields = line.split("\t", 3);
+                if (fields.length != 3 || !fields[0].equals("TASK")) {
+                    throw new IOException("Unexpected message from coordinator: " + line);
+                }
+                try {
+                    String result = runner.run(fields[2]);
+                    send(out, "DONE\t" + fields[1] + "\t" + result);
+                } catch (Exception ex) {
+                    String message = String.valueOf(ex.getMessage()).replace('\t', ' ').replace('\n', ' ');
+                    send(out, "FAIL\t" + fields[1] + "\t" + message);
+                }
+                taskCount++;
+            }
+        }
+        return taskCount;
+    }
+
+    private static TaskRunner createRunner(ADLStoreClient client, String[] job) throws IOException {
+        if (job[0].equals("acl")) {
+            return ShardedAclProcessor.createTaskRunner(client, Arrays.copyOfRange(job, 1, job.length));
+        }
+        if (job[0].equals("xfer")) {
+            return ShardedTransfer.createTaskRunner(client, Arrays.copyOfRange(job, 1, job.length));
+        }
+        throw new IOException("Unknown job type from coordinator: " + job[0]);
+    }
+
+    private static void send(BufferedWriter out, String line) throws IOException {
+        out.write(line);
+        out.write('\n');
+        out.flush();
+    }
+}
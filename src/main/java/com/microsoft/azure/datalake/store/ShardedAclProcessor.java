@@ -0,0 +1,141 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ * See License.txt in the project root for license information.
+ *
+ */
+
+package com.microsoft.azure.datalake.store;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Runs a recursive ACL change across several processes, possibly on several machines, for trees too large for the
+ * threads of one process.
+ * <P>
+ * The coordinator lists the top levels of the tree breadth-first until it has enough subtrees to keep the workers
+ * busy, then hands out one task per subtree (processed recursively by a worker with {@link RecursiveAclProcessor})
+ * and one task per expanded directory (the directory itself and the files directly in it). Rules, depth and
+ * relative paths are evaluated as if the whole tree had been traversed by one process.
+ */
+class ShardedAclProcessor {
+    private static final Logger log = LoggerFactory.getLogger("com.microsoft.azure.datalake.store.ShardedAclProcessor");
+    private static final int SHARDS_PER_WORKER = 8;
+    private static final int MAX_PLANNING_DEPTH = 3;
+
+    private static final String FLAT = "FLAT";
+    private static final String TREE = "TREE";
+
+    private long fileCount = 0;
+    private long directoryCount = 0;
+    private int failedTasks = 0;
+
+    /**
+     * Applies the rules to the tree at path, using worker processes.
+     *
+     * @param client the client to use for planning
+     * @param credFile credential file passed to the local workers
+     * @param path the root of the tree
+     * @param ruleSet the rules to apply
+     * @param filter restricts the traversal; handed to the workers with the rules
+     * @param localWorkers number of worker processes to start on this machine
+     * @param port port to accept workers from other machines on, or 0
+     * @return the combined stats of all workers
+     * @throws IOException if the tree cannot be listed or some tasks failed
+     */
+    static RecursiveAclProcessorStats processRequest(ADLStoreClient client, String credFile, String path,
+                                                     AclRuleSet ruleSet, EntryFilter filter,
+                                                     int localWorkers, int port) throws IOException {
+        DirectoryEntry root = client.getDirectoryEntry(path);
+        if (root.type == DirectoryEntryType.FILE) {
+            return RecursiveAclProcessor.processRequest(client, path, ruleSet, filter);
+        }
+
+        final ShardedAclProcessor p = new ShardedAclProcessor();
+        ShardCoordinator coordinator = new ShardCoordinator("acl\t" + root.fullName + "\t" + filter.encode() + "\t" + ruleSet.encode(),
+                new ShardCoordinator.ResultHandler() {
+                    public void completed(String task, String result) {
+                        p.completed(result);
+                    }
+                    public void failed(String task, String message) {
+                        log.error("Task " + task + " failed: " + message);
+                        p.failedTasks++;
+                    }
+                });
+        p.plan(client, root, filter, coordinator, Math.max(1, localWorkers) * SHARDS_PER_WORKER);
+        coordinator.noMoreTasks();
+        try {
+            coordinator.run(credFile, localWorkers, port);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for workers");
+        }
+        if (p.failedTasks > 0) {
+            throw new IOException(p.failedTasks + " tasks failed, see log for details");
+        }
+        return new RecursiveAclProcessorStats(p.fileCount, p.directoryCount);
+    }
+
+    /*
+     * Expands the tree level by level until there are enough subtrees, or the planning depth is reached
+     */
+    private void plan(ADLStoreClient client, DirectoryEntry root, EntryFilter filter, ShardCoordinator coordinator,
+                      int targetShards) throws IOException {
+        List<DirectoryEntry> frontier = new ArrayList<>();
+        frontier.add(root);
+        for (int depth = 0; depth < MAX_PLANNING_DEPTH && frontier.size() < targetShards && !frontier.isEmpty(); depth++) {
+            List<DirectoryEntry> next = new ArrayList<>();
+            for (DirectoryEntry de : frontier) {
+                String relativePath = EntryFilter.relativePath(root.fullName, de.fullName);
+                if (!filter.shouldDescend(de.fullName, relativePath, de.name, depth)) {
+                    coordinator.addTask(TREE + "\t" + de.fullName);   // nothing below it is visited
+                    continue;
+                }
+                coordinator.addTask(FLAT + "\t" + de.fullName);
+                String continuationToken = "";
+                do {   // in pages, so a huge directory is never held in memory whole
+                    DirectoryEntryListWithContinuationToken page = ParallelTreeWalker.listPage(client, de.fullName, continuationToken);
+                    List<DirectoryEntry> entries = page.getEntries();
+                    if (entries == null || entries.isEmpty()) break;
+                    for (DirectoryEntry child : entries) {
+                        if (child.type == DirectoryEntryType.DIRECTORY) next.add(child);
+                    }
+                    continuationToken = page.getContinuationToken();
+                } while (continuationToken != null && !continuationToken.isEmpty());
+            }
+            frontier = next;
+        }
+        for (DirectoryEntry de : frontier) {
+            coordinator.addTask(TREE + "\t" + de.fullName);
+        }
+        log.debug("Planned sharded ACL run for " + root.fullName);
+    }
+
+    private void completed(String result) {
+        String[] counts = result.split("\t");
+        fileCount += Long.parseLong(counts[0]);
+        directoryCount += Long.parseLong(counts[1]);
+    }
+
+    /*
+     * Runs on the workers: job fields are the root path followed by the encoded filter and rule set
+     */
+    static ShardWorker.TaskRunner createTaskRunner(final ADLStoreClient client, String[] job) {
+        final String rootPath = job[0];
+        final EntryFilter filter = EntryFilter.decode(job, 1);
+        final AclRuleSet ruleSet = AclRuleSet.decode(job, 1 + EntryFilter.ENCODED_FIELDS);
+        return new ShardWorker.TaskRunner() {
+            public String run(String payload) throws Exception {
+                String[] fields = payload.split("\t", 2);
+                RecursiveAclProcessorStats stats = RecursiveAclProcessor.processSubtree(client, rootPath, fields[1],
+                        ruleSet, filter, fields[0].equals(FLAT));
+                return stats.fileCount + "\t" + stats.directoryCount;
+            }
+        };
+    }
+}
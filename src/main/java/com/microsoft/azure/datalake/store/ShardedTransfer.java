@@ -0,0 +1,241 @@
+package com.microsoft.azure.datalake.store;
+
+import com.microsoft.azure.datalake.store.Job.JobType;
+import com.microsoft.azure.datalake.store.JobExecutor.UploadStatus;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+/*
+ * Spreads the chunks of an upload or download across worker processes (see ShardWorker), possibly on several
+ * machines, for transfers too large for the threads of one process.
+ *
+ * This process stays the coordinator: it enumerates the source (or reads the manifest) as usual, and hands out
+ * each chunk as a task instead of transferring it. Workers only move the bytes of a chunk, to the segment of an
+ * upload or to its offset in the intermediate file of a download, which is safe to repeat; a chunk whose worker
+ * fails or leaves is handed to another one by ShardCoordinator. The outcomes are fed back to the executors of this
+ * process, which run the per-file steps (concatenate, rename, verify) and keep the stats, exactly as if they had
+ * transferred the chunks themselves.
+ *
+ * Workers on other machines need the local side of the transfer (the source of an upload, the destination of a
+ * download) under the same path, on a file system shared with the coordinator.
+ */
+class ShardedTransfer {
+	private static final Logger log = LoggerFactory.getLogger("com.microsoft.azure.datalake.store.ShardedTransfer");
+	private static final String UPLOAD = "upload";
+	private static final String DOWNLOAD = "download";
+	private final String credFile;
+	private final int localWorkers, port;
+	private final Map<Long, Job> outstanding = new HashMap<>();
+	private long nextTask = 0;
+	private volatile boolean failed = false;
+
+	private ShardedTransfer(String credFile, int localWorkers, int port) {
+		this.credFile = credFile;
+		this.localWorkers = localWorkers;
+		this.port = port;
+	}
+
+	/*
+	 * adlstool.shard.workers and adlstool.shard.port, as for the ACL operations; null when neither is set
+	 */
+	static ShardedTransfer fromProperties(String credFile) {
+		int workers = AdlsTool.getIntProperty("adlstool.shard.workers", 0);
+		int port = AdlsTool.getIntProperty("adlstool.shard.port", 0);
+		if(workers <= 0 && port <= 0) {
+			return null;
+		}
+		return new ShardedTransfer(credFile, Math.max(0, workers), port);
+	}
+
+	/*
+	 * Starts handing out the chunks of jobQ to workers. Every job ends up in executorQ, with the outcome of its
+	 * chunk in remoteStatus; executorQ is marked complete once all workers are done. The chunks are handed out by
+	 * feederCount threads, as checking whether a file exists at the destination, and creating the local directory
+	 * of a download, takes a round trip or a file system call per file.
+	 */
+	Thread start(final ConsumerQueue<Job> jobQ, final ConsumerQueue<Job> executorQ, final ADLStoreClient client,
+			final IfExists overwrite, boolean upload, int feederCount) {
+		final ShardCoordinator coordinator = new ShardCoordinator("xfer\t" + (upload ? UPLOAD : DOWNLOAD),
+				new ShardCoordinator.ResultHandler() {
+					public void completed(String task, String result) {
+						finished(task, UploadStatus.successful, executorQ);
+					}
+					public void failed(String task, String message) {
+						log.error("Chunk task " + task + " failed: " + message);
+						finished(task, UploadStatus.failed, executorQ);
+					}
+				});
+		final Thread[] feeders = new Thread[Math.max(1, feederCount)];
+		for(int i = 0; i < feeders.length; i++) {
+			feeders[i] = new Thread(new Runnable() {
+				public void run() {
+					Job job;
+					while((job = jobQ.poll()) != null) {
+						dispatch(job, coordinator, executorQ, client, overwrite);
+					}
+				}
+			});
+		}
+		final Thread feeder = new Thread(new Runnable() {
+			public void run() {
+				for(Thread t : feeders) {
+					t.start();
+				}
+				try {
+					for(Thread t : feeders) {
+						t.join();
+					}
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				coordinator.noMoreTasks();
+			}
+		});
+		Thread t = new Thread(new Runnable() {
+			public void run() {
+				feeder.start();
+				try {
+					coordinator.run(credFile, localWorkers, port);
+				} catch (IOException e) {
+					log.error("Error running shard coordinator: " + e.getMessage());
+					System.out.println("Error starting shard workers: " + e.getMessage());
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				failed = true;   // no task is handed out from now on
+				try {
+					feeder.join();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				failOutstanding(executorQ);
+				executorQ.markComplete();
+			}
+		});
+		t.start();
+		return t;
+	}
+
+	private void dispatch(Job job, ShardCoordinator coordinator, ConsumerQueue<Job> executorQ, ADLStoreClient client,
+			IfExists overwrite) {
+		String payload;
+		if(job.type == JobType.FILEUPLOAD) {
+			if(overwrite != IfExists.OVERWRITE && job.existsAtDestination(client)) {
+				job.remoteStatus = UploadStatus.skipped;
+			}
+			payload = job.offset + "\t" + job.size + "\t" + escape(job.getSourcePath()) + "\t"
+					+ escape(job.getDestinationIntermediatePath());
+		} else if(job.type == JobType.FILEDOWNLOAD) {
+			if(overwrite != IfExists.OVERWRITE && job.data.destinationFile.exists()) {
+				job.remoteStatus = UploadStatus.skipped;
+			} else if(!job.data.createLocalDirectory()) {
+				job.remoteStatus = UploadStatus.failed;
+			}
+			payload = job.offset + "\t" + job.size + "\t" + job.data.sourceEntry.length + "\t" + escape(job.getSourcePath())
+					+ "\t" + escape(job.data.destinationIntermediatePath);
+		} else {
+			executorQ.add(job);   // directories are created by the executors
+			return;
+		}
+		if(failed && job.remoteStatus == null) {
+			job.remoteStatus = UploadStatus.failed;
+		}
+		if(job.remoteStatus != null) {
+			executorQ.add(job);
+			return;
+		}
+		long id;
+		synchronized(this) {
+			id = nextTask++;
+			outstanding.put(id, job);
+		}
+		coordinator.addTask(id + "\t" + payload);
+	}
+
+	private void finished(String task, UploadStatus status, ConsumerQueue<Job> executorQ) {
+		Job job;
+		synchronized(this) {
+			job = outstanding.remove(Long.parseLong(task.substring(0, task.indexOf('\t'))));
+		}
+		if(job != null) {
+			job.remoteStatus = status;
+			executorQ.add(job);
+		}
+	}
+
+	/*
+	 * Chunks still outstanding when the coordinator stopped early, e.g. because it could not listen
+	 */
+	private void failOutstanding(ConsumerQueue<Job> executorQ) {
+		synchronized(this) {
+			for(Job job : outstanding.values()) {
+				log.error("Chunk " + job.id + " of " + job.getSourcePath() + " was not transferred");
+				job.remoteStatus = UploadStatus.failed;
+				executorQ.add(job);
+			}
+			outstanding.clear();
+		}
+	}
+
+	/*
+	 * Runs on the workers: the job field is the direction, tasks hold the chunk to transfer
+	 */
+	static ShardWorker.TaskRunner createTaskRunner(ADLStoreClient client, String[] job) throws IOException {
+		final boolean upload = job[0].equals(UPLOAD);
+		if(!upload && !job[0].equals(DOWNLOAD)) {
+			throw new IOException("Unknown transfer direction from coordinator: " + job[0]);
+		}
+		final JobExecutor executor = new JobExecutor(null, client, IfExists.OVERWRITE, new FileProgress());
+		return new ShardWorker.TaskRunner() {
+			public String run(String payload) throws Exception {
+				String[] fields = payload.split("\t", -1);
+				for(int i = 0; i < fields.length; i++) {
+					fields[i] = unescape(fields[i]);
+				}
+				long offset = Long.parseLong(fields[1]);
+				long size = Long.parseLong(fields[2]);
+				UploadStatus status;
+				if(upload) {
+					status = executor.uploadChunk(fields[3], fields[4], offset, size);
+				} else {
+					long length = Long.parseLong(fields[3]);
+					String name = fields[4].substring(fields[4].lastIndexOf('/') + 1);
+					DirectoryEntry source = new DirectoryEntry(name, fields[4], length, null, null, new Date(0), new Date(0),
+							DirectoryEntryType.FILE, 0, 0, null, false, null);
+					status = executor.downloadChunk(source, new File(fields[5]), offset, size);
+				}
+				if(status != UploadStatus.successful) {
+					throw new IOException("Error transferring chunk at " + offset + " of " + (upload ? fields[3] : fields[4]));
+				}
+				return Long.toString(size);
+			}
+		};
+	}
+
+	/*
+	 * Paths go into tab-separated, line-based messages; backslash, tab, CR and LF are escaped
+	 */
+	private static String escape(String s) {
+		return s.replace("\\", "\\\\").replace("\t", "\\t").replace("\r", "\\r").replace("\n", "\\n");
+	}
+
+	private static String unescape(String s) {
+		StringBuilder sb = new StringBuilder(s.length());
+		for(int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			if(c == '\\' && i + 1 < s.length()) {
+				char n = s.charAt(++i);
+				sb.append(n == 't' ? '\t' : n == 'r' ? '\r' : n == 'n' ? '\n' : n);
+			} else {
+				sb.append(c);
+			}
+		}
+		return sb.toString();
+	}
+}
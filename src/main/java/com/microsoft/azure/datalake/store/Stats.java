@@ -6,6 +6,10 @@ import java.util.List;
 public class Stats {
 	public long timeTakenInMilliSeconds = 0;
 	long totalSizeInBytes;
+	public long timeToFirstFileInMilliSeconds = -1;
+	public long maxFilesInProgress = 0;
+	public long compressionInputBytes, compressionOutputBytes, compressionCpuNanos;
+	public int compressedChunks, storedChunks;
 	public List<String> successfulTransfers = new ArrayList<>();
 	public List<String> failedTransfers = new ArrayList<>();
 	public List<String> skippedTransfers = new ArrayList<>();
@@ -14,6 +18,11 @@ public class Stats {
 		successfulTransfers.addAll(stats.getSuccessfulUploads());
 		failedTransfers.addAll(stats.getFailedUploads());
 		skippedTransfers.addAll(stats.getSkippedUploads());
+		compressionInputBytes += stats.compressionInputBytes;
+		compressionOutputBytes += stats.compressionOutputBytes;
+		compressionCpuNanos += stats.compressionCpuNanos;
+		compressedChunks += stats.compressedChunks;
+		storedChunks += stats.storedChunks;
 		timeTakenInMilliSeconds = Math.max(timeTakenInMilliSeconds, stats.totalTimeTakenInMilliSeconds);
 	}
 	public List<String> getSuccessfulTransfers() {
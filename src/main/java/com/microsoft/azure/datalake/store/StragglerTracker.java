@@ -0,0 +1,209 @@
+package com.microsoft.azure.datalake.store;
+
+import com.microsoft.azure.datalake.store.Job.JobType;
+import com.microsoft.azure.datalake.store.JobExecutor.UploadStatus;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/*
+ * Balances the tail of a transfer. The executors register the chunks they start; once the job queue is drained,
+ * an idle executor asks for more work here, in this order:
+ *
+ * A straggler, a chunk running more than HEDGE_FACTOR times the 95th percentile of the chunk times so far, gets a
+ * second attempt: to a segment path of its own for uploads and copies, to the same range of the intermediate file
+ * for downloads. The first attempt to succeed decides the chunk; the other one is cancelled and its segment deleted
+ * before the file is concatenated.
+ *
+ * Otherwise the running chunk with the most bytes left is split: the second half of what its attempt has not taken
+ * on yet becomes a piece of its own, another segment for uploads and copies, another range for downloads.
+ *
+ * Chunks of compressed transfers and single-chunk uploads, which are written to the final path, are left alone.
+ */
+class StragglerTracker {
+	private static final Logger log = LoggerFactory.getLogger("com.microsoft.azure.datalake.store.FileUploader");
+	static final StragglerTracker NONE = new StragglerTracker(false, false);
+	static final String HEDGE_SUFFIX = "-hedge";
+	private static final int MIN_SAMPLES = 20;
+	private static final int MAX_SAMPLES = 1000; // most recent chunk times the percentile is taken over
+	private static final double HEDGE_FACTOR = 2.0;
+	private static final long MIN_HEDGE_MILLIS = 5000;
+	private static final long POLL_MILLIS = 200;
+	private static final long MIN_PIECE_SIZE = 8 * JobExecutor.oneMB;
+	private static final long UPLOAD_ALIGNMENT = 4 * JobExecutor.oneMB; // the size of the appends
+	private final boolean hedge, split;
+	private final Map<Job, Chunk> inFlight = new LinkedHashMap<>(); // oldest first
+	private final long[] samples = new long[MAX_SAMPLES];
+	private long sampleCount = 0;
+	private long p95 = 0, p95SampleCount = -1;
+
+	private static class Chunk {
+		final Job job;
+		final long startTime = System.currentTimeMillis();
+		Job hedge;
+		long hedgeStartTime;
+		int running = 1;
+		boolean decided = false;
+		Chunk(Job job) {
+			this.job = job;
+		}
+	}
+
+	StragglerTracker(boolean hedge, boolean split) {
+		this.hedge = hedge;
+		this.split = split;
+	}
+
+	private boolean isTracked(Job job) {
+		if(!(hedge || split) || job.remoteStatus != null || job.original != null) {
+			return false;
+		}
+		if(job.type == JobType.FILEDOWNLOAD) {
+			return !job.data.decompress;
+		}
+		return (job.type == JobType.FILEUPLOAD || job.type == JobType.FILECOPY) && job.data.isSplitUpload() && !job.data.compress;
+	}
+
+	synchronized void started(Job job) {
+		if(isTracked(job)) {
+			inFlight.put(job, new Chunk(job));
+		}
+	}
+
+	/*
+	 * Called by the executor of every attempt when it is done. Returns whether the outcome of this attempt is the
+	 * outcome of the chunk; false for the losing attempt, and for a failed one while the other may still succeed.
+	 */
+	boolean finished(Job attempt, UploadStatus status, ADLStoreClient client) {
+		Job key = attempt.original != null ? attempt.original : attempt;
+		Job loser = null;
+		boolean decides;
+		synchronized(this) {
+			Chunk c = inFlight.get(key);
+			if(c == null) {
+				return true;
+			}
+			c.running--;
+			if(c.decided) {
+				loser = attempt;
+				decides = false;
+			} else if(status != UploadStatus.failed || c.running == 0) {
+				c.decided = true;
+				decides = true;
+				long start = attempt == c.job ? c.startTime : c.hedgeStartTime;
+				if(status == UploadStatus.successful) {
+					addSample(System.currentTimeMillis() - start);
+				}
+				if(c.running > 0) {
+					loser = attempt == c.job ? c.hedge : c.job;
+					loser.cancelled = true;
+				}
+				if(attempt.original != null && status == UploadStatus.successful) {
+					attempt.data.hedgedSegments.add(attempt.original.getSegmentPath());
+					log.debug("Hedged attempt won chunk " + attempt.id + " of " + attempt.getSourcePath());
+				}
+			} else {
+				decides = false;
+			}
+			if(c.running == 0) {
+				inFlight.remove(key);
+			}
+			notifyAll();
+		}
+		if(loser != null && loser.type != JobType.FILEDOWNLOAD) {
+			deleteSegment(loser, client);
+		}
+		return decides;
+	}
+
+	private static void deleteSegment(Job loser, ADLStoreClient client) {
+		String path = loser.getDestinationIntermediatePath();
+		try {
+			client.delete(path);
+		} catch (IOException e) {
+			log.debug("Failed to delete segment " + path + " of the losing attempt: " + e.getMessage());
+		}
+	}
+
+	/*
+	 * Waits for work for an executor that found the job queue drained: the second attempt of a straggler, or a
+	 * piece split off a running chunk. Returns null once no chunk that could give any is left in flight.
+	 */
+	synchronized Job awaitWork() {
+		while(!inFlight.isEmpty()) {
+			Chunk c = hedge ? pickStraggler() : null;
+			if(c != null) {
+				c.hedge = new Job(c.job.data, c.job.offset, c.job.size, c.job.id, c.job.type);
+				c.hedge.original = c.job;
+				c.hedge.piece = c.job.piece;
+				c.hedgeStartTime = System.currentTimeMillis();
+				c.running++;
+				log.debug("Hedging chunk " + c.job.id + " of " + c.job.getSourcePath() + ", running for "
+						+ (c.hedgeStartTime - c.startTime) + " ms");
+				return c.hedge;
+			}
+			Job piece = split ? splitLargest() : null;
+			if(piece != null) {
+				return piece;
+			}
+			try {
+				wait(POLL_MILLIS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return null;
+			}
+		}
+		return null;
+	}
+
+	private Job splitLargest() {
+		Chunk largest = null;
+		long largestRemaining = 2 * MIN_PIECE_SIZE;
+		for(Chunk c : inFlight.values()) {
+			long remaining = c.job.remaining();
+			if(c.hedge == null && !c.decided && remaining >= largestRemaining) {
+				largest = c;
+				largestRemaining = remaining;
+			}
+		}
+		if(largest == null) {
+			return null;
+		}
+		long alignment = largest.job.type == JobType.FILEUPLOAD ? UPLOAD_ALIGNMENT : JobExecutor.getReadBufferSize();
+		Job piece = largest.job.splitOff(Math.max(MIN_PIECE_SIZE, alignment), alignment);
+		if(piece != null) {
+			log.debug("Split chunk " + piece.id + " of " + piece.getSourcePath() + " at " + piece.offset + ", "
+					+ piece.size + " bytes");
+		}
+		return piece;
+	}
+
+	private Chunk pickStraggler() {
+		if(sampleCount < MIN_SAMPLES) {
+			return null;
+		}
+		if(p95SampleCount != sampleCount) {
+			int n = (int) Math.min(sampleCount, MAX_SAMPLES);
+			long[] sorted = Arrays.copyOf(samples, n);
+			Arrays.sort(sorted);
+			p95 = sorted[(int) Math.ceil(0.95 * n) - 1];
+			p95SampleCount = sampleCount;
+		}
+		long threshold = Math.max(MIN_HEDGE_MILLIS, (long) (HEDGE_FACTOR * p95));
+		long now = System.currentTimeMillis();
+		for(Chunk c : inFlight.values()) {
+			if(c.hedge == null && !c.decided && now - c.startTime > threshold) {
+				return c;
+			}
+		}
+		return null;
+	}
+
+	private void addSample(long millis) {
+		samples[(int) (sampleCount++ % MAX_SAMPLES)] = millis;
+	}
+}
@@ -0,0 +1,153 @@
+package com.microsoft.azure.datalake.store;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+
+/*
+ * Downloads one ADLS file to a stream, such as stdout, without touching the local disk. Ranges of the read buffer
+ * size (adlstool.buffersize, see JobExecutor.getReadBufferSize) are fetched by parallel readers, each with a read
+ * stream of its own, and written out in order. Readers stay within a window of ranges ahead of the one being
+ * written, so a slow consumer holds them back and the memory used is bounded by the window.
+ */
+class StreamDownloader {
+	private static final Logger log = LoggerFactory.getLogger("com.microsoft.azure.datalake.store.FileUploader");
+	static final String STDOUT = "-";
+	private static final int maxParallelRanges = 8;
+	private final ADLStoreClient client;
+	private final DirectoryEntry source;
+	private final int rangeSize, window;
+	private final long ranges;
+	private final Map<Long, byte[]> fetched = new HashMap<>();
+	private final ArrayDeque<byte[]> freeBuffers = new ArrayDeque<>();
+	private long nextToFetch = 0, nextToWrite = 0;
+	private String error = null;
+
+	private StreamDownloader(ADLStoreClient client, DirectoryEntry source, int parallel) {
+		this.client = client;
+		this.source = source;
+		this.rangeSize = JobExecutor.getReadBufferSize();
+		this.window = 2 * parallel;
+		this.ranges = (source.length + rangeSize - 1) / rangeSize;
+	}
+
+	/*
+	 * Writes the file to stdout, which AdlsTool.main has kept clear of everything else
+	 */
+	static Stats download(String source, ADLStoreClient client) throws IOException, InterruptedException {
+		return download(source, client, new FileOutputStream(FileDescriptor.out));
+	}
+
+	static Stats download(String source, ADLStoreClient client, OutputStream out) throws IOException, InterruptedException {
+		Stats stats = new Stats();
+		DirectoryEntry entry = client.getDirectoryEntry(source);
+		if(entry.type != DirectoryEntryType.FILE) {
+			throw new IllegalArgumentException("Only a file can be downloaded to stdout");
+		}
+		int parallel = Math.max(1, Math.min(AdlsTool.threadSetup(), maxParallelRanges));
+		StreamDownloader downloader = new StreamDownloader(client, entry, parallel);
+		long start = System.currentTimeMillis();
+		boolean successful = downloader.run(out, parallel);
+		stats.timeTakenInMilliSeconds = System.currentTimeMillis() - start;
+		if(successful) {
+			stats.successfulTransfers.add(entry.fullName);
+			stats.totalSizeInBytes = entry.length;
+			stats.timeToFirstFileInMilliSeconds = stats.timeTakenInMilliSeconds;
+			stats.maxFilesInProgress = 1;
+		} else {
+			log.error("Download failed: source file path " + entry.fullName);
+			stats.failedTransfers.add(entry.fullName);
+		}
+		return stats;
+	}
+
+	private boolean run(OutputStream out, int parallel) throws InterruptedException {
+		Thread[] readers = new Thread[parallel];
+		for(int i = 0; i < readers.length; i++) {
+			readers[i] = new Thread(new Runnable() {
+				public void run() {
+					fetchRanges();
+				}
+			});
+			readers[i].setDaemon(true);
+			readers[i].start();
+		}
+		try {
+			for(long range = 0; range < ranges; range++) {
+				byte[] buffer;
+				synchronized(this) {
+					while(error == null && !fetched.containsKey(range)) {
+						wait();
+					}
+					if(error != null) {
+						break;
+					}
+					buffer = fetched.remove(range);
+				}
+				out.write(buffer, 0, rangeLength(range));   // blocks while the consumer is behind
+				synchronized(this) {
+					freeBuffers.push(buffer);
+					nextToWrite = range + 1;
+					notifyAll();
+				}
+			}
+			out.flush();
+		} catch (IOException e) {
+			fail("Error writing to stdout: " + e.getMessage());
+		}
+		for(Thread reader : readers) {
+			reader.join();
+		}
+		if(error != null) {
+			log.error(error);
+			System.out.println(error);
+		}
+		return error == null;
+	}
+
+	private void fetchRanges() {
+		try (ADLFileInputStream stream = new ADLFileInputStream(source.fullName, source, client)) {
+			while(true) {
+				long range;
+				byte[] buffer;
+				synchronized(this) {
+					while(error == null && nextToFetch < ranges && nextToFetch >= nextToWrite + window) {
+						wait();
+					}
+					if(error != null || nextToFetch >= ranges) {
+						return;
+					}
+					range = nextToFetch++;
+					buffer = freeBuffers.isEmpty() ? new byte[rangeSize] : freeBuffers.pop();
+				}
+				JobExecutor.readFully(stream, range * rangeSize, buffer, rangeLength(range));
+				synchronized(this) {
+					fetched.put(range, buffer);
+					notifyAll();
+				}
+			}
+		} catch (IOException e) {
+			fail("Error downloading file " + source.fullName + ": " + e.getMessage());
+		} catch (InterruptedException e) {
+			fail("Interrupted while downloading file " + source.fullName);
+		}
+	}
+
+	private int rangeLength(long range) {
+		return (int) Math.min(rangeSize, source.length - range * rangeSize);
+	}
+
+	private synchronized void fail(String message) {
+		if(error == null) {
+			error = message;
+		}
+		notifyAll();
+	}
+}
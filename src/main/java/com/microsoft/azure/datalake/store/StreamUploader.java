@@ -0,0 +1,190 @@
+package com.microsoft.azure.datalake.store;
+
+import com.microsoft.azure.datalake.store.Job.JobType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Uploads a stream of unknown length, such as stdin, to one ADLS file. The stream is cut into segments of the
+ * chunk size (adlstool.chunksize, 16 MB by default here), which are uploaded in parallel while the next ones are
+ * read, and put together with the concatenate and rename of split file uploads. At most maxParallelSegments
+ * segments are uploaded at a time; reading waits for a free buffer, which bounds the memory used.
+ */
+class StreamUploader {
+	private static final Logger log = LoggerFactory.getLogger("com.microsoft.azure.datalake.store.FileUploader");
+	static final String STDIN = "-";
+	private static final long defaultSegmentSize = 16 * JobExecutor.oneMB;
+	private static final int maxParallelSegments = 8;
+	private final ADLStoreClient client;
+	private final ArrayBlockingQueue<byte[]> freeBuffers;
+	private final ExecutorService pool;
+	private final int segmentSize, maxBuffers;
+	private int allocatedBuffers = 0;
+	private volatile String error = null;
+
+	private StreamUploader(ADLStoreClient client) {
+		int parallel = Math.max(1, Math.min(AdlsTool.threadSetup(), maxParallelSegments));
+		this.client = client;
+		this.segmentSize = (int) Math.min(AdlsTool.getChunkSize(defaultSegmentSize), Integer.MAX_VALUE - 8);
+		this.maxBuffers = parallel + 2; // the ones being uploaded, the one being read and the next
+		this.freeBuffers = new ArrayBlockingQueue<>(maxBuffers);
+		this.pool = Executors.newFixedThreadPool(parallel);
+	}
+
+	/*
+	 * @param in the stream to upload, read to its end
+	 * @param destination path of the ADLS file to create
+	 */
+	static Stats upload(InputStream in, String destination, ADLStoreClient client, IfExists overwrite) throws IOException, InterruptedException {
+		destination = destination.trim();
+		if(destination.isEmpty() || destination.endsWith("/")) {
+			throw new IllegalArgumentException("The destination of an upload from stdin must be a file path");
+		}
+		Stats stats = new Stats();
+		if(overwrite != IfExists.OVERWRITE && client.checkExists(destination)) {
+			log.debug("Upload Skipped: destination file path " + destination);
+			stats.skippedTransfers.add(destination);
+			return stats;
+		}
+		StreamUploader uploader = new StreamUploader(client);
+		long start = System.currentTimeMillis();
+		long length = uploader.uploadInternal(in, new MetaData(destination));
+		stats.timeTakenInMilliSeconds = System.currentTimeMillis() - start;
+		if(length < 0) {
+			log.error("Upload failed: destination file path " + destination);
+			stats.failedTransfers.add(destination);
+		} else {
+			stats.successfulTransfers.add(destination);
+			stats.totalSizeInBytes = length;
+			stats.timeToFirstFileInMilliSeconds = stats.timeTakenInMilliSeconds;
+			stats.maxFilesInProgress = 1;
+		}
+		return stats;
+	}
+
+	/*
+	 * Returns the length of the uploaded file, or -1 if the upload failed
+	 */
+	private long uploadInternal(InputStream in, MetaData data) throws IOException, InterruptedException {
+		try {
+			return pipeline(in, data);
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	private long pipeline(InputStream in, MetaData data) throws IOException, InterruptedException {
+		byte[] first = takeBuffer();
+		int firstLength = readFully(in, first);
+		byte[] second = firstLength == first.length ? takeBuffer() : null;
+		int secondLength = second != null ? readFully(in, second) : 0;
+		if(secondLength == 0) {
+			// the stream fits one segment, which goes straight to the destination as small file uploads do
+			return writeSegment(data.getDestinationFinalPath(), first, firstLength) ? firstLength : -1;
+		}
+
+		long segments = 0, length = 0;
+		byte[] buffer = first;
+		int bufferLength = firstLength;
+		byte[] next = second;
+		int nextLength = secondLength;
+		try {
+			while(bufferLength > 0 && error == null) {
+				submit(data.getDestinationIntermediatePath() + segments++, buffer, bufferLength);
+				length += bufferLength;
+				buffer = next;
+				bufferLength = nextLength;
+				if(bufferLength > 0) {
+					next = takeBuffer();
+					nextLength = readFully(in, next);
+				}
+			}
+		} catch (IOException e) {
+			error = "Error reading the stream to upload: " + e.getMessage();
+		}
+		pool.shutdown();
+		pool.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+
+		boolean successful = error == null;
+		if(successful) {
+			data.splits = segments;
+			data.streamLength = length;
+			Job job = new Job(data, 0, length, 0, JobType.FILEUPLOAD);
+			JobExecutor executor = new JobExecutor(null, client, IfExists.OVERWRITE, new FileProgress());
+			successful = executor.concatenate(job) && executor.verifyUpload(job);
+		} else {
+			log.error(error);
+		}
+		if(!successful) {
+			deleteSegments(data);
+		}
+		return successful ? length : -1;
+	}
+
+	/*
+	 * A free buffer, allocating one while fewer than the pool can use are around
+	 */
+	private byte[] takeBuffer() throws InterruptedException {
+		byte[] buffer = freeBuffers.poll();
+		if(buffer == null && allocatedBuffers < maxBuffers) {
+			allocatedBuffers++;
+			return new byte[segmentSize];
+		}
+		return buffer != null ? buffer : freeBuffers.take();
+	}
+
+	private void submit(final String path, final byte[] buffer, final int length) {
+		pool.execute(new Runnable() {
+			public void run() {
+				try {
+					if(error == null && !writeSegment(path, buffer, length)) {
+						error = "Failed to upload segment " + path;
+					}
+				} catch (RuntimeException e) {
+					error = "Failed to upload segment " + path + ": " + e;
+				} finally {
+					// the reader may be waiting for this buffer
+					freeBuffers.add(buffer);
+				}
+			}
+		});
+	}
+
+	private boolean writeSegment(String path, byte[] buffer, int length) {
+		try (ADLFileOutputStream stream = client.createFile(path, IfExists.OVERWRITE)) {
+			stream.write(buffer, 0, length);
+		} catch (IOException e) {
+			log.error(e.getMessage());
+			return false;
+		}
+		return true;
+	}
+
+	private void deleteSegments(MetaData data) {
+		String prefix = data.getDestinationIntermediatePath();
+		String directory = prefix.substring(0, prefix.lastIndexOf('/'));
+		try {
+			client.deleteRecursive(directory);
+		} catch (IOException e) {
+			log.error("Failed to delete segments " + directory + ": " + e.getMessage());
+		}
+	}
+
+	/*
+	 * Fills the buffer from the stream, short only at its end
+	 */
+	private static int readFully(InputStream in, byte[] buffer) throws IOException {
+		int total = 0, read;
+		while(total < buffer.length && (read = in.read(buffer, total, buffer.length - total)) != -1) {
+			total += read;
+		}
+		return total;
+	}
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ * See License.txt in the project root for license information.
+ *
+ */
+
+package com.microsoft.azure.datalake.store;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Main method for submit: runs a job on a {@link DaemonMain} on this machine, prints its output as it comes and
+ * exits with its exit code. The adlstool.* system properties of this process are passed on to the job.
+ * <P>
+ * The job runs in the daemon's working directory, so the local paths among the arguments and properties are made
+ * absolute here first.
+ */
+class SubmitMain {
+    private static final Set<String> LOCAL_PATH_PROPERTIES = new HashSet<>(Arrays.asList(
+            "adlstool.manifest", "adlstool.progress", "adlstool.tokencache"));
+
+    public static void main(String[] args) {
+        if (args.length < 3) {
+            System.out.println("Illegal number of command-line parameters: " + args.length);
+            AdlsTool.usage(1000);
+        }
+        int port = 0;
+        try {
+            port = Integer.parseInt(args[1]);
+        } catch (NumberFormatException ex) {
+            System.out.println("Illegal daemon port: " + args[1]);
+            AdlsTool.usage(1006);
+        }
+
+        int code = 0;
+        try {
+            code = submit(port, args);
+        } catch (IOException ex) {
+            System.out.println("Error submitting job to daemon on port " + port + ": " + ex.getMessage());
+            System.exit(5002);
+        }
+        System.exit(code);
+    }
+
+    private static int submit(int port, String[] args) throws IOException {
+        File tokenFile = DaemonMain.tokenFile(port);
+        String token = new String(Files.readAllBytes(tokenFile.toPath()), StandardCharsets.UTF_8).trim();
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port);
+             BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+             BufferedWriter out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8))) {
+            out.write("HELLO\t" + token + "\n");
+            for (String name : System.getProperties().stringPropertyNames()) {
+                if (!name.startsWith("adlstool.")) continue;
+                String value = System.getProperty(name);
+                if (LOCAL_PATH_PROPERTIES.contains(name)) value = absolute(value);
+                out.write("PROP\t" + name + "\t" + value + "\n");
+            }
+            StringBuilder run = new StringBuilder("RUN");
+            for (String arg : jobArguments(args)) run.append('\t').append(arg);
+            out.write(run.append('\n').toString());
+            out.flush();
+
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (line.startsWith("OUT\t")) {
+                    System.out.print(unescape(line.substring(4)));
+                    System.out.flush();
+                } else if (line.startsWith("EXIT\t")) {
+                    return Integer.parseInt(line.substring(5));
+                }
+            }
+        }
+        throw new IOException("Daemon closed the connection before the job ended");
+    }
+
+    /*
+     * The arguments of the job, args minus "submit <port>", with its local paths made absolute
+     */
+    private static String[] jobArguments(String[] args) {
+        String[] job = Arrays.copyOfRange(args, 2, args.length);
+        RequestedOperation op;
+        try {
+            op = RequestedOperation.valueOf(job[0].toLowerCase());
+        } catch (IllegalArgumentException ex) {
+            return job;     // the daemon reports it
+        }
+        // job[i] is args[i + 1] of a standalone run, which has the credential file at 1
+        switch (op) {
+            case upload:
+                if (job.length > 1 && !job[1].trim().equals(StreamUploader.STDIN)) job[1] = absolute(job[1].trim());
+                break;
+            case download:
+                if (job.length > 2 && !job[2].trim().equals(StreamDownloader.STDOUT)) job[2] = absolute(job[2].trim());
+                break;
+            case applyaclrules:
+            case getacl:
+                if (job.length > 2) job[2] = absolute(job[2]);
+                break;
+            case restoreacl:
+                if (job.length > 1) job[1] = absolute(job[1]);
+                break;
+            case copy:
+                absoluteOption(job, 3, "destcred=");
+                break;
+            case cleanup:
+                absoluteOption(job, 2, "local=");
+                break;
+            default:
+                break;
+        }
+        return job;
+    }
+
+    private static void absoluteOption(String[] job, int first, String prefix) {
+        for (int i = first; i < job.length; i++) {
+            String arg = job[i].trim();
+            if (arg.startsWith(prefix) && arg.length() > prefix.length()) {
+                job[i] = prefix + absolute(arg.substring(prefix.length()));
+            }
+        }
+    }
+
+    private static String absolute(String path) {
+        return new File(path).getAbsolutePath();
+    }
+
+    private static String unescape(String s) {
+        StringBuilder sb = new StringBuilder(s.length());
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '\\' && i + 1 < s.length()) {
+                char n = s.charAt(++i);
+                sb.append(n == 'n' ? '\n' : n == 'r' ? '\r' : n);
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+}
@@ -30,7 +30,21 @@ public class UploaderMain {
         IfExists overwriteOption = overwrite != null ? IfExists.OVERWRITE : IfExists.FAIL; 
         try {
             long start = System.currentTimeMillis();
-            Stats R = RemoteCopy.upload(srcPath, dstPath, client, overwriteOption);
+            Stats R;
+            if(srcPath.equals(StreamUploader.STDIN)) {
+            	if(DaemonMain.isRunningJob()) {
+            		System.out.println("Uploads from stdin are not supported by the daemon");
+            		AdlsTool.exit(1011);
+            	}
+            	if("gzip".equals(System.getProperty("adlstool.compress"))) {
+            		System.out.println("adlstool.compress cannot be combined with uploads from stdin");
+            		AdlsTool.exit(1008);
+            	}
+            	R = StreamUploader.upload(System.in, dstPath, client, overwriteOption);
+            } else {
+            	R = RemoteCopy.upload(srcPath, dstPath, client, overwriteOption,
+            			ShardedTransfer.fromProperties(args[1]));
+            }
             long stop = System.currentTimeMillis();
 
             if(R.getSkippedTransfers().size() + R.getFailedTransfers().size() == 0) {
@@ -41,6 +55,17 @@ public class UploaderMain {
             System.out.println("Time taken: " + AdlsTool.timeString(stop - start));
             System.out.println("# of Files Uploaded: " + R.getSuccessfulTransfers().size());
             System.out.println("Total number of Bytes uploaded: " + R.totalSizeInBytes);
+            if(R.timeToFirstFileInMilliSeconds >= 0) {
+            	System.out.println("Time to first completed file: " + AdlsTool.timeString(R.timeToFirstFileInMilliSeconds));
+            }
+            System.out.println("Most files in progress at once: " + R.maxFilesInProgress);
+            int chunks = R.compressedChunks + R.storedChunks;
+            if(chunks > 0) {
+            	System.out.printf("Compression ratio: %.2f:1 (%d chunks compressed, %d stored)%n",
+            			R.compressionOutputBytes == 0 ? 1.0 : (double) R.compressionInputBytes / R.compressionOutputBytes,
+            			R.compressedChunks, R.storedChunks);
+            	System.out.println("Compression CPU time per chunk: " + AdlsTool.timeString(R.compressionCpuNanos / 1000000 / chunks));
+            }
             if(R.getSkippedTransfers().size() + R.getFailedTransfers().size() > 0) {
             	System.out.println("Failed uploads:");
                 for(String file: R.getFailedTransfers()) {
@@ -55,7 +80,7 @@ public class UploaderMain {
             System.out.println("Error uploading files");
             System.out.println(ex.getMessage());
             ex.printStackTrace();
-            System.exit(5001);
+            AdlsTool.exit(5001);
         }
     }
 }
@@ -0,0 +1,77 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ * See License.txt in the project root for license information.
+ *
+ */
+
+package com.microsoft.azure.datalake.store;
+
+import com.microsoft.azure.datalake.store.acl.AclEntry;
+import junit.framework.TestCase;
+
+public class AclRuleSetTest extends TestCase {
+    private final AclRuleSet rules = new AclRuleSet()
+            .addRule("*.csv", RequestedOperation.modifyacl, AclEntry.parseAclSpec("user:analysts:r-x"))
+            .addRule("/data/finance", RequestedOperation.modifyacl, AclEntry.parseAclSpec("user:finance:rwx"))
+            .addRule("hr/**", RequestedOperation.removeacl, AclEntry.parseAclSpec("user:contractors:rwx"))
+            .addRule("x.tx?", RequestedOperation.modifyacl, AclEntry.parseAclSpec("user:first:r--"))
+            .addRule("?.txt", RequestedOperation.modifyacl, AclEntry.parseAclSpec("user:second:r--"));
+
+    public void testNoRuleApplies() {
+        assertNull(select(null, "/data/readme.md"));
+    }
+
+    public void testAnchoredPatternBeatsName() {
+        AclRuleSet.Rule finance = select(null, "/data/finance");
+        assertEquals("/data/finance", finance.pattern.toString());
+        // the rule of the directory applies below it, over the less specific name pattern
+        assertSame(finance, select(finance, "/data/finance/q1.csv"));
+        assertEquals("*.csv", select(null, "/data/q1.csv").pattern.toString());
+    }
+
+    public void testMoreSpecificRuleOverridesInherited() {
+        AclRuleSet.Rule csv = select(null, "/data/q1.csv");
+        assertEquals("/data/finance", select(csv, "/data/finance").pattern.toString());
+    }
+
+    public void testRelativePattern() {
+        AclRuleSet.Rule hr = select(null, "/data/hr/people.csv");
+        assertEquals("hr/**", hr.pattern.toString());
+        assertEquals(RequestedOperation.removeacl, hr.op);
+    }
+
+    public void testTieGoesToFirstRule() {
+        assertEquals("x.tx?", select(null, "/data/x.txt").pattern.toString());
+    }
+
+    public void testForAllEntries() {
+        AclRuleSet all = AclRuleSet.forAllEntries(RequestedOperation.modifyacl, AclEntry.parseAclSpec("user:bob:rwx"));
+        AclRuleSet.Rule rule = all.select(null, "/any/path", "path", "path");
+        assertNotNull(rule);
+        assertNull(rule.pattern);
+    }
+
+    public void testEncodeDecode() {
+        AclRuleSet decoded = AclRuleSet.decode(rules.encode().split("\t", -1), 0);
+        assertEquals("/data/finance", decoded.select(null, "/data/finance", "finance", "finance").pattern.toString());
+        assertEquals("x.tx?", decoded.select(null, "/data/x.txt", "x.txt", "x.txt").pattern.toString());
+    }
+
+    public void testNotAnAclOperation() {
+        try {
+            new AclRuleSet().addRule("*", RequestedOperation.upload, AclEntry.parseAclSpec("user:bob:rwx"));
+            fail("accepted a rule that is not an ACL operation");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    /*
+     * Selects the rule for an entry of a traversal rooted at /data
+     */
+    private AclRuleSet.Rule select(AclRuleSet.Rule inherited, String absolutePath) {
+        return rules.select(inherited, absolutePath, EntryFilter.relativePath("/data", absolutePath),
+                absolutePath.substring(absolutePath.lastIndexOf('/') + 1));
+    }
+}
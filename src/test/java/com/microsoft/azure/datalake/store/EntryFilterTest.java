@@ -0,0 +1,87 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ * See License.txt in the project root for license information.
+ *
+ */
+
+package com.microsoft.azure.datalake.store;
+
+import junit.framework.TestCase;
+
+import java.util.Date;
+
+public class EntryFilterTest extends TestCase {
+    private static final long HOUR = 3600 * 1000L;
+
+    public void testRelativePath() {
+        assertEquals("a/b.txt", EntryFilter.relativePath("/data", "/data/a/b.txt"));
+        assertEquals("a", EntryFilter.relativePath("/", "/a"));
+        assertEquals("a", EntryFilter.relativePath("/data/", "/data/a"));
+        assertEquals("", EntryFilter.relativePath("/data", "/data"));
+    }
+
+    /*
+     * A path that merely starts with the characters of the root is outside it
+     */
+    public void testRelativePathOutsideRoot() {
+        assertEquals("", EntryFilter.relativePath("/data", "/database/x.csv"));
+        assertEquals("", EntryFilter.relativePath("/data", "/other/x.csv"));
+    }
+
+    public void testParseDuration() {
+        long now = System.currentTimeMillis();
+        assertAbout(now - 90 * 1000L, EntryFilter.parseTime("90s"));
+        assertAbout(now - 30 * 60 * 1000L, EntryFilter.parseTime("30m"));
+        assertAbout(now - 24 * HOUR, EntryFilter.parseTime("24h"));
+        assertAbout(now - 7 * 24 * HOUR, EntryFilter.parseTime(" 7D "));
+    }
+
+    public void testParseDate() {
+        assertEquals(1483228800000L, EntryFilter.parseTime("2017-01-01").getTime());
+        assertEquals(1483228800000L + 13 * HOUR + 5 * 60 * 1000L + 9000L,
+                EntryFilter.parseTime("2017-01-01T13:05:09").getTime());
+    }
+
+    public void testParseEpochMillis() {
+        assertEquals(1483228800123L, EntryFilter.parseTime("1483228800123").getTime());
+    }
+
+    public void testParseIllegalTime() {
+        for (String value : new String[] {"", "yesterday", "2017-13-01", "2017-01-01 13:05:09", "5w", "h"}) {
+            try {
+                EntryFilter.parseTime(value);
+                fail("parsed illegal time " + value);
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+    }
+
+    public void testParseSize() {
+        assertEquals(0, EntryFilter.parseSize("0"));
+        assertEquals(1234, EntryFilter.parseSize("1234"));
+        assertEquals(2048, EntryFilter.parseSize("2K"));
+        assertEquals(5L << 20, EntryFilter.parseSize("5m"));
+        assertEquals(3L << 30, EntryFilter.parseSize("3GB"));
+        assertEquals(1L << 40, EntryFilter.parseSize(" 1T "));
+    }
+
+    public void testParseIllegalSize() {
+        for (String value : new String[] {"", "K", "-1", "1.5G", "10X"}) {
+            try {
+                EntryFilter.parseSize(value);
+                fail("parsed illegal size " + value);
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+    }
+
+    /*
+     * Durations are taken back from the time of the call
+     */
+    private static void assertAbout(long expected, Date actual) {
+        assertTrue("expected about " + new Date(expected) + ", got " + actual, Math.abs(actual.getTime() - expected) < 60 * 1000L);
+    }
+}
@@ -0,0 +1,195 @@
+package com.microsoft.azure.datalake.store;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+public class GzipChunkDecoderTest extends TestCase {
+	private final Random random = new Random(42);
+	private File directory;
+
+	protected void setUp() throws IOException {
+		directory = Files.createTempDirectory("gzipchunkdecoder").toFile();
+	}
+
+	protected void tearDown() {
+		for(File f : directory.listFiles()) {
+			f.delete();
+		}
+		directory.delete();
+	}
+
+	public void testSingleMember() throws IOException {
+		byte[] data = randomBytes(100000);
+		byte[] file = gzip(data, Deflater.DEFAULT_COMPRESSION);
+		assertTrue(Arrays.equals(data, decompress(file, 1000)));
+	}
+
+	public void testMembersNotAlignedWithChunks() throws IOException {
+		ByteArrayOutputStream data = new ByteArrayOutputStream();
+		ByteArrayOutputStream file = new ByteArrayOutputStream();
+		for(int i = 0; i < 20; i++) {
+			byte[] member = randomBytes(500 + random.nextInt(3000));
+			data.write(member);
+			file.write(gzip(member, Deflater.DEFAULT_COMPRESSION));
+		}
+		assertTrue(Arrays.equals(data.toByteArray(), decompress(file.toByteArray(), 1777)));
+	}
+
+	public void testMembersAlignedWithChunks() throws IOException {
+		ByteArrayOutputStream data = new ByteArrayOutputStream();
+		ByteArrayOutputStream file = new ByteArrayOutputStream();
+		byte[] first = randomBytes(4000);
+		byte[] firstMember = gzip(first, Deflater.NO_COMPRESSION);
+		data.write(first);
+		file.write(firstMember);
+		for(int i = 0; i < 3; i++) {
+			// stored members of the same length line up with chunks of that length
+			byte[] member = randomBytes(4000);
+			data.write(member);
+			file.write(gzip(member, Deflater.NO_COMPRESSION));
+		}
+		assertTrue(Arrays.equals(data.toByteArray(), decompress(file.toByteArray(), firstMember.length)));
+	}
+
+	/*
+	 * A .gz file stored verbatim in a member, as in a tar.gz of .gz files, must not be decoded a second time by
+	 * the chunk it starts
+	 */
+	public void testEmbeddedGzipAtChunkStart() throws IOException {
+		byte[] embedded = gzip(randomBytes(3000), Deflater.DEFAULT_COMPRESSION);
+		ByteArrayOutputStream outer = new ByteArrayOutputStream();
+		outer.write(randomBytes(1000));
+		outer.write(embedded);
+		outer.write(randomBytes(1000));
+		byte[] tail = "tail".getBytes("UTF-8");
+		ByteArrayOutputStream file = new ByteArrayOutputStream();
+		file.write(gzip(outer.toByteArray(), Deflater.NO_COMPRESSION));
+		file.write(gzip(tail, Deflater.DEFAULT_COMPRESSION));
+		byte[] compressed = file.toByteArray();
+		int chunkSize = indexOf(compressed, embedded);
+		assertTrue(chunkSize > 0);
+		try (FileChannel channel = FileChannel.open(new File(directory, "false").toPath(), StandardOpenOption.CREATE,
+				StandardOpenOption.WRITE)) {
+			List<GzipChunkDecoder.Member> members = decoder(compressed, chunkSize).decode(chunkSize, channel);
+			assertEquals(chunkSize, members.get(0).start);   // the chunk does take it for a member
+		}
+
+		ByteArrayOutputStream expected = new ByteArrayOutputStream();
+		expected.write(outer.toByteArray());
+		expected.write(tail);
+		assertTrue(Arrays.equals(expected.toByteArray(), decompress(compressed, chunkSize)));
+	}
+
+	public void testMembersNoChunkDecodedAreDecodedWhenAssembling() throws IOException {
+		ByteArrayOutputStream data = new ByteArrayOutputStream();
+		ByteArrayOutputStream file = new ByteArrayOutputStream();
+		for(int i = 0; i < 5; i++) {
+			byte[] member = randomBytes(2000);
+			data.write(member);
+			file.write(gzip(member, Deflater.DEFAULT_COMPRESSION));
+		}
+		byte[] compressed = file.toByteArray();
+		List<List<GzipChunkDecoder.Member>> members = new ArrayList<>();
+		List<File> parts = new ArrayList<>();
+		members.add(new ArrayList<GzipChunkDecoder.Member>());
+		parts.add(new File(directory, "missing"));
+		File out = new File(directory, "out");
+		try (FileChannel channel = FileChannel.open(out.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+			assertEquals(data.size(), decoder(compressed, compressed.length).assemble(members, parts, channel));
+		}
+		assertTrue(Arrays.equals(data.toByteArray(), Files.readAllBytes(out.toPath())));
+	}
+
+	public void testNotGzip() throws IOException {
+		try {
+			decompress(randomBytes(5000), 1000);
+			fail("decoded a file that is not gzip");
+		} catch (IOException e) {
+			assertTrue(e.getMessage().startsWith("Not a gzip file"));
+		}
+	}
+
+	public void testTruncatedFile() throws IOException {
+		byte[] file = gzip(randomBytes(10000), Deflater.DEFAULT_COMPRESSION);
+		try {
+			decompress(Arrays.copyOf(file, file.length - 100), 1000);
+			fail("decoded a truncated file");
+		} catch (IOException e) {
+			// expected
+		}
+	}
+
+	/*
+	 * Decodes every chunk, as the executors do, and then assembles the parts
+	 */
+	private byte[] decompress(byte[] file, int chunkSize) throws IOException {
+		List<List<GzipChunkDecoder.Member>> members = new ArrayList<>();
+		List<File> parts = new ArrayList<>();
+		for(long start = 0; start < file.length; start += chunkSize) {
+			File part = new File(directory, "part" + parts.size());
+			try (FileChannel channel = FileChannel.open(part.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+				members.add(decoder(file, chunkSize).decode(start, channel));
+			}
+			parts.add(part);
+		}
+		File out = new File(directory, "out");
+		try (FileChannel channel = FileChannel.open(out.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING)) {
+			long length = decoder(file, chunkSize).assemble(members, parts, channel);
+			assertEquals(length, channel.size());
+		}
+		return Files.readAllBytes(out.toPath());
+	}
+
+	private static GzipChunkDecoder decoder(final byte[] file, int chunkSize) {
+		return new GzipChunkDecoder(new GzipChunkDecoder.Source() {
+			public int read(long position, byte[] b, int offset, int length) {
+				if(position >= file.length) {
+					return -1;
+				}
+				int n = (int) Math.min(length, file.length - position);
+				System.arraycopy(file, (int) position, b, offset, n);
+				return n;
+			}
+		}, "test.gz", file.length, chunkSize, new byte[512]);
+	}
+
+	private byte[] randomBytes(int length) {
+		byte[] b = new byte[length];
+		random.nextBytes(b);
+		return b;
+	}
+
+	private static byte[] gzip(byte[] data, final int level) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (GZIPOutputStream out = new GZIPOutputStream(bytes) {
+			{
+				def.setLevel(level);
+			}
+		}) {
+			out.write(data);
+		}
+		return bytes.toByteArray();
+	}
+
+	private static int indexOf(byte[] haystack, byte[] needle) {
+		for(int i = 0; i + needle.length <= haystack.length; i++) {
+			if(Arrays.equals(Arrays.copyOfRange(haystack, i, i + needle.length), needle)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+}
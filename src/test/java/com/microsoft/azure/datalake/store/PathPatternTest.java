@@ -0,0 +1,117 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ * See License.txt in the project root for license information.
+ *
+ */
+
+package com.microsoft.azure.datalake.store;
+
+import junit.framework.TestCase;
+
+public class PathPatternTest extends TestCase {
+
+    public void testStarStaysWithinComponent() {
+        PathPattern p = new PathPattern("data/*.csv");
+        assertTrue(matches(p, "/root/data/x.csv"));
+        assertFalse(matches(p, "/root/data/sub/x.csv"));
+        assertFalse(matches(p, "/root/data/x.csvx"));
+    }
+
+    public void testDoubleStarCrossesComponents() {
+        PathPattern p = new PathPattern("data/**/x.csv");
+        assertTrue(matches(p, "/root/data/x.csv"));     // "**/" also matches no directory
+        assertTrue(matches(p, "/root/data/a/x.csv"));
+        assertTrue(matches(p, "/root/data/a/b/x.csv"));
+        assertFalse(matches(p, "/root/other/x.csv"));
+
+        PathPattern tail = new PathPattern("logs/**");
+        assertTrue(matches(tail, "/root/logs/2017/01/app.log"));
+        assertFalse(matches(tail, "/root/logs"));
+    }
+
+    public void testQuestionMark() {
+        PathPattern p = new PathPattern("part-?");
+        assertTrue(matches(p, "/root/part-1"));
+        assertFalse(matches(p, "/root/part-10"));
+        assertFalse(matches(p, "/root/part-"));
+        assertFalse(new PathPattern("a?b").matches("/a/b", "a/b", "a/b"));   // not a separator
+    }
+
+    public void testCharacterClass() {
+        PathPattern p = new PathPattern("file[0-2].txt");
+        assertTrue(matches(p, "/root/file0.txt"));
+        assertTrue(matches(p, "/root/file2.txt"));
+        assertFalse(matches(p, "/root/file3.txt"));
+
+        PathPattern negated = new PathPattern("file[!0-2].txt");
+        assertTrue(matches(negated, "/root/file3.txt"));
+        assertFalse(matches(negated, "/root/file1.txt"));
+    }
+
+    public void testAlternatives() {
+        PathPattern p = new PathPattern("*.{csv,tsv}");
+        assertTrue(matches(p, "/root/a.csv"));
+        assertTrue(matches(p, "/root/a.tsv"));
+        assertFalse(matches(p, "/root/a.json"));
+        assertTrue(matches(new PathPattern("a,b"), "/root/a,b"));   // a comma outside braces is literal
+    }
+
+    public void testRegexCharactersAreLiteral() {
+        PathPattern p = new PathPattern("a+b(1).txt");
+        assertTrue(matches(p, "/root/a+b(1).txt"));
+        assertFalse(matches(p, "/root/aab1xtxt"));
+    }
+
+    public void testUnterminated() {
+        try {
+            new PathPattern("file[0-2.txt");
+            fail("accepted an unterminated [");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        try {
+            new PathPattern("*.{csv,tsv");
+            fail("accepted an unterminated {");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    /*
+     * Absolute patterns match the absolute path, patterns with a '/' the relative path, others the name at any depth
+     */
+    public void testAnchoring() {
+        PathPattern absolute = new PathPattern("/root/data");
+        assertTrue(absolute.matches("/root/data", "data", "data"));
+        assertFalse(absolute.matches("/other/root/data", "root/data", "data"));
+
+        PathPattern relative = new PathPattern("data/x");
+        assertTrue(relative.matches("/root/data/x", "data/x", "x"));
+        assertFalse(relative.matches("/root/sub/data/x", "sub/data/x", "x"));
+
+        PathPattern name = new PathPattern("x");
+        assertTrue(name.matches("/root/x", "x", "x"));
+        assertTrue(name.matches("/root/a/b/x", "a/b/x", "x"));
+        assertFalse(name.matches("/root/x/y", "x/y", "y"));
+    }
+
+    public void testTrailingSlashAndDotAreIgnored() {
+        assertTrue(matches(new PathPattern("data/sub/"), "/root/data/sub"));
+        assertTrue(matches(new PathPattern("./data/sub"), "/root/data/sub"));
+    }
+
+    public void testSpecificity() {
+        assertTrue(new PathPattern("/data/x").specificity() > new PathPattern("a_very_long_file_name.csv").specificity());
+        assertTrue(new PathPattern("data/x/**").specificity() > new PathPattern("data/**").specificity());
+        assertEquals(new PathPattern("x.tx?").specificity(), new PathPattern("?.txt").specificity());
+    }
+
+    /*
+     * Matches a path below the traversal root /root
+     */
+    private static boolean matches(PathPattern p, String absolutePath) {
+        String relativePath = EntryFilter.relativePath("/root", absolutePath);
+        return p.matches(absolutePath, relativePath, absolutePath.substring(absolutePath.lastIndexOf('/') + 1));
+    }
+}